@@ -0,0 +1,243 @@
+import java.util.Arrays;
+
+/**
+ * Anytime player: searches deeper and deeper (1 ply, then 2 ... up to a
+ * maximum) keeping at each depth only a beam of the best boards, and returns
+ * the move of the deepest search finished when the deadline of the move
+ * expires.
+ *
+ * Depth 1 scores every move of the piece with the linear evaluation of
+ * PlayerSkeleton (and so picks the same move alone) and keeps the beamWidth
+ * best boards. Each next depth expands every board of the beam with the best
+ * reply to each of the 7 possible pieces, and keeps the best of those replies
+ * as the beam of the depth. A board is then worth the average over the
+ * pieces of its reply: the value of the reply if it was expanded in turn,
+ * its score otherwise, as ExpectimaxPlayer does at 2 plies. Values are
+ * backed up to the boards of depth 1 after each depth, and the move of the
+ * one of highest value is picked. Depth 1 always completes, the next ones are
+ * dropped if the deadline expires before their last board.
+ *
+ * Boards of the beam are stored as row masks and skylines in flat arrays and
+ * loaded into one StateWrapper to be searched.
+ */
+public class BeamSearchPlayer implements Policy {
+	// value of a reply when every move of the piece loses
+	private static final double LOSS = -1e6;
+
+	private final FeatureSet.Evaluator evaluator;
+	private final int maxDepth;
+	// time given to pick a move, in nanoseconds
+	private final long budget;
+
+	private final StateWrapper wrap = new StateWrapper();
+	private final double[] features = new double[Feature.NB_FEATURES];
+	// beam of each depth, depth d in beams[d-1]
+	private final Beam[] beams;
+
+	// depths finished over the moves picked so far
+	private long moves;
+	private long depths;
+
+	/**
+	 * Player with the weights of PlayerSkeleton, a beam of 16 boards, up to 4
+	 * plies and 5 ms per move
+	 */
+	public BeamSearchPlayer() {
+		this(FeatureSet.DEFAULT, PlayerSkeleton.WEIGHTS, 16, 4, 5);
+	}
+
+	/**
+	 * @param features
+	 *            the features weighted
+	 * @param weights
+	 *            a weight per feature of the set, in its order
+	 * @param beamWidth
+	 *            number of boards kept at each depth
+	 * @param maxDepth
+	 *            number of plies searched when time allows
+	 * @param millis
+	 *            time given to pick a move, in milliseconds
+	 */
+	public BeamSearchPlayer(FeatureSet features, double[] weights, int beamWidth, int maxDepth, double millis) {
+		evaluator = features.evaluator(weights);
+		this.maxDepth = maxDepth;
+		budget = (long) (millis * 1e6);
+		beams = new Beam[maxDepth];
+		for (int d = 0; d < maxDepth; d++)
+			beams[d] = new Beam(beamWidth);
+	}
+
+	@Override
+	public int pickMove(State s, int[][] legalMoves) {
+		long end = System.nanoTime() + budget;
+		wrap.reset(s);
+		moves++;
+
+		// depth 1: the moves of the piece
+		Beam beam = beams[0];
+		beam.clear();
+		for (int i : PlacementIndex.moves(wrap.getNextPiece())) {
+			if (evaluator.bound(wrap, i, features) <= beam.worst())
+				continue;
+			if (wrap.makeMove(i)) {
+				beam.offer(evaluator.evaluate(wrap, features), i, -1, wrap);
+				wrap.undoMove();
+			}
+		}
+		depths++;
+		if (beam.size == 0)
+			return 0;
+		int bestMove = beam.move[0];
+
+		for (int depth = 2; depth <= maxDepth; depth++) {
+			beam = beams[depth - 2];
+			Beam next = beams[depth - 1];
+			next.clear();
+			for (int b = 0; b < beam.size; b++) {
+				if (System.nanoTime() > end)
+					return bestMove;
+				beam.load(b, wrap);
+				expand(beam, b, next);
+			}
+			next.link(beam);
+
+			// back the values up to depth 1
+			for (int d = depth - 2; d >= 0; d--)
+				beams[d].backUp(d + 1 < depth - 1 ? beams[d + 1] : null);
+			beam = beams[0];
+			int best = 0;
+			for (int b = 1; b < beam.size; b++) {
+				if (beam.value[b] > beam.value[best])
+					best = b;
+			}
+			bestMove = beam.move[best];
+			depths++;
+			if (next.size == 0)
+				break;
+		}
+		return bestMove;
+	}
+
+	// search the best reply to each piece on board b of a beam, loaded,
+	// offering the replies to the beam of the next depth
+	private void expand(Beam beam, int b, Beam next) {
+		for (int piece = 0; piece < State.N_PIECES; piece++) {
+			wrap.setNextPiece(piece);
+			double best = Double.NEGATIVE_INFINITY;
+			int bestReply = -1;
+			for (int r : PlacementIndex.moves(piece)) {
+				if (evaluator.bound(wrap, r, features) <= best)
+					continue;
+				if (wrap.makeMove(r)) {
+					double score = evaluator.evaluate(wrap, features);
+					if (score > best) {
+						best = score;
+						bestReply = r;
+					}
+					wrap.undoMove();
+				}
+			}
+			beam.reply[b * State.N_PIECES + piece] = bestReply < 0 ? LOSS : best;
+			if (bestReply >= 0 && best > next.worst()) {
+				wrap.makeMove(bestReply);
+				next.offer(best, beam.move[b], b * State.N_PIECES + piece, wrap);
+				wrap.undoMove();
+			}
+		}
+	}
+
+	// average number of plies searched per move
+	public double getAverageDepth() {
+		return moves == 0 ? 0 : (double) depths / moves;
+	}
+
+	/**
+	 * The best boards of a depth, by decreasing score (the first offered
+	 * first among equal scores), with the first move each comes from, and
+	 * once expanded the replies to each piece
+	 */
+	private static final class Beam {
+		final int width;
+		final double[] score;
+		final int[] move;
+		// reply of the previous depth the board is (board * N_PIECES + piece)
+		final int[] parent;
+		final int[] cleared;
+		final int[] rows;
+		final int[] top;
+		// score of the best reply to each piece, board * N_PIECES + piece,
+		// and the board it is in the next beam, -1 if it did not get in
+		final double[] reply;
+		final int[] child;
+		// average over the pieces of the value of the reply
+		final double[] value;
+		int size;
+
+		Beam(int width) {
+			this.width = width;
+			score = new double[width];
+			move = new int[width];
+			parent = new int[width];
+			cleared = new int[width];
+			rows = new int[width * State.ROWS];
+			top = new int[width * State.COLS];
+			reply = new double[width * State.N_PIECES];
+			child = new int[width * State.N_PIECES];
+			value = new double[width];
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		// score a board must beat to get in
+		double worst() {
+			return size < width ? Double.NEGATIVE_INFINITY : score[size - 1];
+		}
+
+		// keep the board of a search state if it is among the best
+		void offer(double value, int firstMove, int reply, StateWrapper wrap) {
+			if (value <= worst())
+				return;
+			int i = size < width ? size++ : size - 1;
+			for (; i > 0 && score[i - 1] < value; i--) {
+				score[i] = score[i - 1];
+				move[i] = move[i - 1];
+				parent[i] = parent[i - 1];
+				cleared[i] = cleared[i - 1];
+				System.arraycopy(rows, (i - 1) * State.ROWS, rows, i * State.ROWS, State.ROWS);
+				System.arraycopy(top, (i - 1) * State.COLS, top, i * State.COLS, State.COLS);
+			}
+			score[i] = value;
+			move[i] = firstMove;
+			parent[i] = reply;
+			cleared[i] = wrap.getRowsCleared();
+			System.arraycopy(wrap.getRows(), 0, rows, i * State.ROWS, State.ROWS);
+			System.arraycopy(wrap.getTop(), 0, top, i * State.COLS, State.COLS);
+		}
+
+		// tell the previous beam, once this one is complete, where its replies
+		// went
+		void link(Beam previous) {
+			Arrays.fill(previous.child, 0, previous.size * State.N_PIECES, -1);
+			for (int i = 0; i < size; i++)
+				previous.child[parent[i]] = i;
+		}
+
+		// value of each board from its replies and, for the ones in it, their
+		// value in the next beam (null when it was not expanded)
+		void backUp(Beam next) {
+			for (int b = 0; b < size; b++) {
+				double sum = 0;
+				for (int p = b * State.N_PIECES; p < (b + 1) * State.N_PIECES; p++)
+					sum += next != null && child[p] >= 0 ? next.value[child[p]] : reply[p];
+				value[b] = sum / State.N_PIECES;
+			}
+		}
+
+		// load board b in a search state
+		void load(int b, StateWrapper wrap) {
+			wrap.load(rows, b * State.ROWS, top, b * State.COLS, 0, cleared[b]);
+		}
+	}
+}
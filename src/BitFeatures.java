@@ -0,0 +1,223 @@
+/**
+ * The board features of Feature computed with bit operations on packed masks
+ * instead of square by square, returning exactly the same values.
+ *
+ * Whole board versions work on the row masks (bit c of rows[r] set if the
+ * square of column c is filled) and the column tops. Column versions work on a
+ * column mask (bit r set if the square of row r is filled), which is what
+ * StateWrapper uses to update its features after a move. Landing height and
+ * complete lines are not computed from the board and are left to Feature.
+ *
+ * FeatureCheck compares these with the square by square definitions.
+ */
+public final class BitFeatures {
+	// column mask with every row filled
+	public static final int COLUMN_FULL = (1 << State.ROWS) - 1;
+
+	// row transitions of every possible row mask
+	private static final byte[] ROW_TRANSITIONS = new byte[1 << State.COLS];
+	// POSITION_BIT[b] has bit r set for every row r whose own bit b is set
+	private static final int[] POSITION_BIT = new int[5];
+
+	static {
+		for (int m = 0; m < ROW_TRANSITIONS.length; m++) {
+			ROW_TRANSITIONS[m] = (byte) Integer.bitCount((m ^ ((m << 1) | 1)) & State.FULL_ROW);
+		}
+		for (int r = 0; r < State.ROWS; r++) {
+			for (int b = 0; b < POSITION_BIT.length; b++) {
+				if ((r & (1 << b)) != 0)
+					POSITION_BIT[b] |= 1 << r;
+			}
+		}
+	}
+
+	private BitFeatures() {
+	}
+
+	// changes between filled and empty along a row, the left wall being filled
+	public static int rowTransitions(int row) {
+		return ROW_TRANSITIONS[row];
+	}
+
+	// changes between filled and empty up a column, the floor being filled
+	public static int columnTransitions(int column) {
+		return Integer.bitCount((column ^ ((column << 1) | 1)) & COLUMN_FULL);
+	}
+
+	// empty squares of a column below its top
+	public static int columnHoles(int column, int top) {
+		return Integer.bitCount(~column & ((1 << top) - 1));
+	}
+
+	/**
+	 * Wells of a column: every empty square above its top with both sides
+	 * filled counts for itself and the empty squares below it down to the top
+	 *
+	 * @param left
+	 *            mask of the column on the left, COLUMN_FULL for the wall
+	 * @param top
+	 *            top of the column
+	 * @param right
+	 *            mask of the column on the right, COLUMN_FULL for the wall
+	 */
+	public static int columnWells(int left, int top, int right) {
+		int wells = left & right & ~((1 << top) - 1) & COLUMN_FULL;
+		if (wells == 0)
+			return 0;
+		// a well square at row r counts 1 + r - top
+		int rowSum = 0;
+		for (int b = 0; b < POSITION_BIT.length; b++) {
+			rowSum += Integer.bitCount(wells & POSITION_BIT[b]) << b;
+		}
+		return rowSum + Integer.bitCount(wells) * (1 - top);
+	}
+
+	// hole depth of a column: for each hole, the filled squares above it
+	public static int columnHoleDepth(int column, int top) {
+		int holes = ~column & ((1 << top) - 1);
+		int depth = 0;
+		while (holes != 0) {
+			depth += Integer.bitCount(column >>> Integer.numberOfTrailingZeros(holes));
+			holes &= holes - 1;
+		}
+		return depth;
+	}
+
+	// rows with a hole in a column, bit r for row r (or them over the columns
+	// and count the bits for the rows with holes)
+	public static int columnHoleRows(int column, int top) {
+		return ~column & ((1 << top) - 1);
+	}
+
+	// Feature.totalRowTransitions()
+	public static int rowTransitions(int[] rows) {
+		int transitions = 0;
+		for (int r = 0; r < State.ROWS; r++)
+			transitions += ROW_TRANSITIONS[rows[r]];
+		return transitions;
+	}
+
+	// Feature.totalColumnTransitions(): the columns changing between two
+	// consecutive rows, counting from a filled floor
+	public static int columnTransitions(int[] rows) {
+		int transitions = 0;
+		int below = State.FULL_ROW;
+		for (int r = 0; r < State.ROWS; r++) {
+			transitions += Integer.bitCount(rows[r] ^ below);
+			below = rows[r];
+		}
+		return transitions;
+	}
+
+	// Feature.numberHoles(): empty squares with a filled one above them
+	public static int holes(int[] rows) {
+		int holes = 0;
+		int covered = 0;
+		for (int r = State.ROWS - 1; r >= 0; r--) {
+			holes += Integer.bitCount(covered & ~rows[r]);
+			covered |= rows[r];
+		}
+		return holes;
+	}
+
+	// hole depth of the board: for each hole, the filled squares above it in
+	// its column. The squares filled above each column are counted in binary,
+	// bit b of the count for column c being bit c of above[b]
+	public static int holeDepth(int[] rows) {
+		int depth = 0;
+		int covered = 0;
+		int[] above = new int[POSITION_BIT.length];
+		for (int r = State.ROWS - 1; r >= 0; r--) {
+			int holes = covered & ~rows[r];
+			for (int b = 0; b < above.length; b++)
+				depth += Integer.bitCount(above[b] & holes) << b;
+			// add the row to the counts
+			int carry = rows[r];
+			for (int b = 0; b < above.length && carry != 0; b++) {
+				int next = above[b] & carry;
+				above[b] ^= carry;
+				carry = next;
+			}
+			covered |= rows[r];
+		}
+		return depth;
+	}
+
+	// rows with at least one hole
+	public static int rowsWithHoles(int[] rows) {
+		int count = 0;
+		int covered = 0;
+		for (int r = State.ROWS - 1; r >= 0; r--) {
+			if ((covered & ~rows[r]) != 0)
+				count++;
+			covered |= rows[r];
+		}
+		return count;
+	}
+
+	// Feature.totalWells()
+	public static int wells(int[] rows, int[] top) {
+		int wells = 0;
+		int covered = 0;
+		for (int r = State.ROWS - 1; r >= 0; r--) {
+			int row = rows[r];
+			covered |= row;
+			// empty here and above, with both sides filled
+			int well = ~covered & ((row << 1) | 1) & ((row >>> 1) | (1 << (State.COLS - 1))) & State.FULL_ROW;
+			while (well != 0) {
+				int c = Integer.numberOfTrailingZeros(well);
+				wells += 1 + r - top[c];
+				well &= well - 1;
+			}
+		}
+		return wells;
+	}
+
+	// Feature.aggregateHeight()
+	public static int aggregateHeight(int[] top) {
+		int height = 0;
+		for (int c = 0; c < State.COLS; c++)
+			height += top[c];
+		return height;
+	}
+
+	// Feature.bumpiness()
+	public static int bumpiness(int[] top) {
+		int bumpiness = 0;
+		for (int c = 1; c < State.COLS; c++)
+			bumpiness += Math.abs(top[c] - top[c - 1]);
+		return bumpiness;
+	}
+
+	// Feature.maxHeight(): first column of maximum height
+	public static int maxHeight(int[] top) {
+		int col = 0;
+		for (int c = 1; c < State.COLS; c++) {
+			if (top[c] > top[col])
+				col = c;
+		}
+		return col;
+	}
+
+	// depth of the deepest well: how far the top of a column is below the
+	// lower of its neighbours, the walls being as high as the board
+	public static int maxWellDepth(int[] top) {
+		int depth = 0;
+		for (int c = 0; c < State.COLS; c++) {
+			int left = c == 0 ? State.ROWS : top[c - 1];
+			int right = c == State.COLS - 1 ? State.ROWS : top[c + 1];
+			depth = Math.max(depth, Math.min(left, right) - top[c]);
+		}
+		return depth;
+	}
+
+	// Feature.minHeight(): first column of minimum height
+	public static int minHeight(int[] top) {
+		int col = 0;
+		for (int c = 1; c < State.COLS; c++) {
+			if (top[c] < top[col])
+				col = c;
+		}
+		return col;
+	}
+}
@@ -0,0 +1,201 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 2-ply player: a move is worth the best reply to it, averaged over the 7
+ * pieces that can come next (they are equally likely), the replies being
+ * scored with the linear evaluation of PlayerSkeleton. With more plies (see
+ * setPlies()) a reply is worth in turn the average of the best replies to it,
+ * and so on, and a TranspositionTable keeps the value of the boards reached
+ * again by other orders of moves.
+ *
+ * The search makes and undoes the moves on a single StateWrapper, the piece
+ * of the second ply being set with setNextPiece(), so no board is copied.
+ * Replies of the last ply that cannot beat the best one are pruned on their
+ * bound (FeatureSet.Evaluator.bound), and first moves reaching a board
+ * already searched (PlacementIndex.Outcomes) are skipped: both give the same
+ * move as the full search. The first moves can be split across the cores
+ * (setParallel()), SearchPool keeping the first of the best as the loop does,
+ * and a board found in the TranspositionTable has the value its search would
+ * give, so neither changes the move picked.
+ */
+public class ExpectimaxPlayer implements Policy {
+	// value of a reply when every move of the piece loses
+	private static final double LOSS = -1e6;
+
+	private final FeatureSet.Evaluator evaluator;
+	private boolean parallel = false;
+	// plies searched, the move to make included
+	private int plies = 2;
+	// values of the boards searched, null for none
+	private TranspositionTable table;
+
+	// search state and buffers of each searching thread, shared by all the
+	// players since a thread searches with one at a time
+	private static final ThreadLocal<Search> SEARCH = ThreadLocal.withInitial(Search::new);
+
+	// leaves (boards after a reply) searched, and time spent searching
+	private final LongAdder nodes = new LongAdder();
+	private final LongAdder nanos = new LongAdder();
+
+	private static final class Search {
+		final StateWrapper wrap = new StateWrapper();
+		final double[] features = new double[Feature.NB_FEATURES];
+		final PlacementIndex.Outcomes outcomes = new PlacementIndex.Outcomes();
+	}
+
+	/**
+	 * Player with the weights of PlayerSkeleton
+	 */
+	public ExpectimaxPlayer() {
+		this(FeatureSet.DEFAULT, PlayerSkeleton.WEIGHTS);
+	}
+
+	/**
+	 * @param features
+	 *            the features weighted
+	 * @param weights
+	 *            a weight per feature of the set, in its order
+	 */
+	public ExpectimaxPlayer(FeatureSet features, double[] weights) {
+		evaluator = features.evaluator(weights);
+	}
+
+	// split the first moves across the cores with SearchPool, off by
+	// default: it speeds up a single game, and only adds tasks when GamePool
+	// already keeps every core busy with games
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	// number of plies searched, 2 by default: each more ply multiplies the
+	// time by about 200
+	public void setPlies(int plies) {
+		if (plies < 2)
+			throw new IllegalArgumentException("Expectimax searches at least 2 plies, not " + plies);
+		this.plies = plies;
+	}
+
+	// table to keep the values of the boards searched in, shared by the
+	// search threads, or null (the default) to keep none: at 2 plies no
+	// board comes back, from 3 plies the orders of two moves do
+	public void setTranspositionTable(TranspositionTable table) {
+		this.table = table;
+	}
+
+	@Override
+	public int pickMove(State s, int[][] legalMoves) {
+		Search search = SEARCH.get();
+		search.wrap.reset(s);
+		return pickMove(search.wrap);
+	}
+
+	/**
+	 * Same as pickMove(State, int[][]) for a board already loaded in a search
+	 * state, which is left as it was
+	 *
+	 * @param wrap
+	 *            The search state holding the board and the piece to play
+	 * @return The index of the best move in wrap.legalMoves()
+	 */
+	int pickMove(StateWrapper wrap) {
+		long start = System.nanoTime();
+		if (table != null)
+			table.newSearch();
+		int[] moves = PlacementIndex.moves(wrap.getNextPiece());
+		int bestIndex = 0;
+		if (parallel && SearchPool.available()) {
+			// each first move searched on a copy of the board, owned by the
+			// pool thread searching it
+			int best = SearchPool.argmax(moves.length, k -> {
+				Search search = SEARCH.get();
+				search.wrap.reset(wrap);
+				return value(search.wrap, moves[k], search, null);
+			});
+			if (best >= 0)
+				bestIndex = moves[best];
+		} else {
+			Search search = SEARCH.get();
+			search.outcomes.clear();
+			double bestValue = Double.NEGATIVE_INFINITY;
+			for (int i : moves) {
+				double value = value(wrap, i, search, search.outcomes);
+				if (value > bestValue) {
+					bestIndex = i;
+					bestValue = value;
+				}
+			}
+		}
+		nanos.add(System.nanoTime() - start);
+		return bestIndex;
+	}
+
+	// value of a first move: the expectation of the board it gives,
+	// -infinity if the move loses or reaches a board already in outcomes
+	// (which may be null)
+	private double value(StateWrapper wrap, int move, Search search, PlacementIndex.Outcomes outcomes) {
+		int piece = wrap.getNextPiece();
+		if (!wrap.makeMove(move))
+			return Double.NEGATIVE_INFINITY;
+		double value = Double.NEGATIVE_INFINITY;
+		if (outcomes == null || outcomes.add(wrap.getHash()))
+			value = expectation(wrap, plies - 1, search);
+		wrap.setNextPiece(piece);
+		wrap.undoMove();
+		return value;
+	}
+
+	// average over the next pieces of the value of the best move of each on
+	// the board of wrap, searching the given number of plies: the score of the
+	// move for the last one, its expectation before
+	private double expectation(StateWrapper wrap, int plies, Search search) {
+		long key = 0;
+		if (table != null) {
+			key = TranspositionTable.key(wrap.getHash(), wrap.getRowsCleared());
+			double value = table.probe(key, plies);
+			if (!Double.isNaN(value))
+				return value;
+		}
+		long leaves = 0;
+		double sum = 0;
+		for (int next = 0; next < State.N_PIECES; next++) {
+			wrap.setNextPiece(next);
+			double best = Double.NEGATIVE_INFINITY;
+			for (int r : PlacementIndex.moves(next)) {
+				if (plies == 1) {
+					if (evaluator.bound(wrap, r, search.features) <= best)
+						continue;
+					if (wrap.makeMove(r)) {
+						leaves++;
+						double score = evaluator.evaluate(wrap, search.features);
+						if (score > best)
+							best = score;
+						wrap.undoMove();
+					}
+				} else if (wrap.makeMove(r)) {
+					double value = expectation(wrap, plies - 1, search);
+					if (value > best)
+						best = value;
+					wrap.undoMove();
+					wrap.setNextPiece(next);
+				}
+			}
+			sum += best == Double.NEGATIVE_INFINITY ? LOSS : best;
+		}
+		nodes.add(leaves);
+		double value = sum / State.N_PIECES;
+		if (table != null)
+			table.store(key, plies, value);
+		return value;
+	}
+
+	// leaves searched so far
+	public long getNodes() {
+		return nodes.sum();
+	}
+
+	// leaves searched per second of search so far
+	public double getNodesPerSecond() {
+		long time = nanos.sum();
+		return time == 0 ? 0 : nodes.sum() * 1e9 / time;
+	}
+}
@@ -1,12 +1,272 @@
+import java.util.ArrayList;
+import java.util.List;
+
 public class Feature {
 	private final StateWrapper current;
-	private final int move[];
 	public static final int COLS = 10;
 	public static final int ROWS = 21;
 
-	public Feature(StateWrapper wrap,int[] move) {
+	// registry of the features, in the order they register: name, and whether
+	// a higher value is better for the player
+	private static final List<String> NAMES = new ArrayList<>();
+	private static final List<Boolean> REWARDS = new ArrayList<>();
+
+	// index of each feature in the arrays filled by compute(), and the bit
+	// selecting it in a feature mask (1L << index)
+	public static final int LANDING_HEIGHT = register("landingHeight", false);
+	public static final int COMPLETE_LINES = register("completeLines", true);
+	public static final int ROW_TRANSITIONS = register("rowTransitions", false);
+	public static final int COLUMN_TRANSITIONS = register("columnTransitions", false);
+	public static final int HOLES = register("holes", false);
+	public static final int WELLS = register("wells", false);
+	public static final int AGGREGATE_HEIGHT = register("aggregateHeight", false);
+	public static final int BUMPINESS = register("bumpiness", false);
+	public static final int MAX_HEIGHT = register("maxHeight", false);
+	public static final int MIN_HEIGHT = register("minHeight", false);
+	// Dellacherie: rows cleared by the move times the squares of the piece
+	// cleared with them
+	public static final int ERODED_PIECE_CELLS = register("erodedPieceCells", true);
+	// filled squares above the holes, summed over the holes
+	public static final int HOLE_DEPTH = register("holeDepth", false);
+	public static final int ROWS_WITH_HOLES = register("rowsWithHoles", false);
+	// Bertsekas: depth of the deepest well, height of each column and height
+	// difference of each pair of neighbouring columns, COLUMN_HEIGHT + c for
+	// column c and HEIGHT_DIFFERENCE + c for columns c and c+1
+	public static final int MAX_WELL_DEPTH = register("maxWellDepth", false);
+	public static final int COLUMN_HEIGHT = register("columnHeight", COLS, false);
+	public static final int HEIGHT_DIFFERENCE = register("heightDifference", COLS - 1, false);
+	public static final int NB_FEATURES = NAMES.size();
+	// every feature, each at its index in the arrays filled by compute()
+	public static final long ALL_MASK = range(0, NB_FEATURES);
+
+	// features depending on the move made and not only on the board
+	public static final long MOVE_MASK = 1L << LANDING_HEIGHT | 1L << COMPLETE_LINES | 1L << ERODED_PIECE_CELLS;
+	// features bound() bounds from above at least on the moves clearing no
+	// row, the others always get infinity
+	public static final long UPPER_BOUNDED_MASK = MOVE_MASK | 1L << ROW_TRANSITIONS | 1L << COLUMN_TRANSITIONS
+			| 1L << HOLES;
+
+	// features needing a pass over the columns
+	private static final long COLUMN_MASK = 1L << AGGREGATE_HEIGHT | 1L << BUMPINESS | 1L << MAX_HEIGHT
+			| 1L << MIN_HEIGHT | 1L << HOLE_DEPTH | 1L << ROWS_WITH_HOLES | 1L << MAX_WELL_DEPTH
+			| range(COLUMN_HEIGHT, COLS) | range(HEIGHT_DIFFERENCE, COLS - 1);
+
+	public Feature(StateWrapper wrap) {
 		this.current = wrap;
-		this.move = move;
+	}
+
+	// add a feature to the registry, returns its index
+	private static int register(String name, boolean reward) {
+		NAMES.add(name);
+		REWARDS.add(reward);
+		return NAMES.size() - 1;
+	}
+
+	// add count features name0 .. name<count-1> to the registry, returns the
+	// index of the first
+	private static int register(String name, int count, boolean reward) {
+		for (int i = 0; i < count; i++)
+			register(name + i, reward);
+		return NAMES.size() - count;
+	}
+
+	// mask of count features starting at first
+	private static long range(int first, int count) {
+		return ((1L << count) - 1) << first;
+	}
+
+	// position of a feature in the arrays filled by compute() for a mask: the
+	// number of features of the mask below it
+	public static int slot(long mask, int feature) {
+		return Long.bitCount(mask & ((1L << feature) - 1));
+	}
+
+	// name of a feature
+	public static String name(int feature) {
+		return NAMES.get(feature);
+	}
+
+	// true if a higher value of the feature is better (e.g. lines cleared),
+	// false if it is a penalty (e.g. holes)
+	public static boolean isReward(int feature) {
+		return REWARDS.get(feature);
+	}
+
+	// index of the feature of that name, -1 if there is none
+	public static int forName(String name) {
+		return NAMES.indexOf(name);
+	}
+
+	/**
+	 * Compute in one pass every feature selected by mask for a state right
+	 * after a move, same values as the methods of the same name
+	 * 
+	 * @param wrap
+	 *            the state, after makeMove()
+	 * @param mask
+	 *            the features to compute, bit (1L << index) for each
+	 * @param features
+	 *            filled with the selected features packed in increasing index
+	 *            order, feature f at slot(mask, f)
+	 */
+	public static void compute(StateWrapper wrap, long mask, double[] features) {
+		compute(wrap, mask, mask, features);
+	}
+
+	/**
+	 * Same as compute(wrap, mask, features), feature f going to slot(layout,
+	 * f) instead, to fill some of the features of a larger layout
+	 * 
+	 * @param layout
+	 *            the features the array holds, a superset of mask
+	 */
+	public static void compute(StateWrapper wrap, long mask, long layout, double[] features) {
+		if ((mask & 1L << LANDING_HEIGHT) != 0)
+			features[slot(layout, LANDING_HEIGHT)] = landingHeight(wrap);
+		if ((mask & 1L << COMPLETE_LINES) != 0)
+			features[slot(layout, COMPLETE_LINES)] = wrap.getRowsCleared();
+		if ((mask & 1L << ROW_TRANSITIONS) != 0)
+			features[slot(layout, ROW_TRANSITIONS)] = wrap.getRowTransitions();
+		if ((mask & 1L << COLUMN_TRANSITIONS) != 0)
+			features[slot(layout, COLUMN_TRANSITIONS)] = wrap.getColumnTransitions();
+		if ((mask & 1L << HOLES) != 0)
+			features[slot(layout, HOLES)] = wrap.getHoles();
+		if ((mask & 1L << WELLS) != 0)
+			features[slot(layout, WELLS)] = wrap.getWells();
+		if ((mask & 1L << ERODED_PIECE_CELLS) != 0)
+			features[slot(layout, ERODED_PIECE_CELLS)] = wrap.getLastRowsCleared()
+					* wrap.getLastClearedPieceCells();
+		if ((mask & COLUMN_MASK) == 0)
+			return;
+
+		// single walk over the columns for the height and hole based features
+		int[] top = wrap.getTop();
+		int[] cols = wrap.getCols();
+		int aggregateHeight = 0, bumpiness = 0;
+		int maxCol = 0, maxHeight = top[0], minCol = 0, minHeight = top[0];
+		int holeDepth = 0, holeRows = 0, maxWellDepth = 0;
+		int left = ROWS;
+		for (int i = 0; i < COLS; i++) {
+			int h = top[i];
+			int right = i == COLS - 1 ? ROWS : top[i + 1];
+			aggregateHeight += h;
+			if (h > maxHeight) {
+				maxHeight = h;
+				maxCol = i;
+			}
+			if (h < minHeight) {
+				minHeight = h;
+				minCol = i;
+			}
+			maxWellDepth = Math.max(maxWellDepth, Math.min(left, right) - h);
+			int holes = BitFeatures.columnHoleRows(cols[i], h);
+			if (holes != 0) {
+				holeRows |= holes;
+				holeDepth += BitFeatures.columnHoleDepth(cols[i], h);
+			}
+			if ((mask & 1L << (COLUMN_HEIGHT + i)) != 0)
+				features[slot(layout, COLUMN_HEIGHT + i)] = h;
+			if (i < COLS - 1) {
+				int difference = Math.abs(right - h);
+				bumpiness += difference;
+				if ((mask & 1L << (HEIGHT_DIFFERENCE + i)) != 0)
+					features[slot(layout, HEIGHT_DIFFERENCE + i)] = difference;
+			}
+			left = h;
+		}
+		if ((mask & 1L << AGGREGATE_HEIGHT) != 0)
+			features[slot(layout, AGGREGATE_HEIGHT)] = aggregateHeight;
+		if ((mask & 1L << BUMPINESS) != 0)
+			features[slot(layout, BUMPINESS)] = bumpiness;
+		if ((mask & 1L << MAX_HEIGHT) != 0)
+			features[slot(layout, MAX_HEIGHT)] = maxCol;
+		if ((mask & 1L << MIN_HEIGHT) != 0)
+			features[slot(layout, MIN_HEIGHT)] = minCol;
+		if ((mask & 1L << HOLE_DEPTH) != 0)
+			features[slot(layout, HOLE_DEPTH)] = holeDepth;
+		if ((mask & 1L << ROWS_WITH_HOLES) != 0)
+			features[slot(layout, ROWS_WITH_HOLES)] = Integer.bitCount(holeRows);
+		if ((mask & 1L << MAX_WELL_DEPTH) != 0)
+			features[slot(layout, MAX_WELL_DEPTH)] = maxWellDepth;
+	}
+
+	/**
+	 * Bound every feature selected by mask for a state after a move, without
+	 * making the move: each feature of upperMask gets a value it cannot
+	 * exceed, the others a value it cannot be below. Exact where it is cheap
+	 * to be (landing height, complete lines, eroded piece cells, and when the
+	 * move clears nothing transitions and holes, which only change in the rows
+	 * and columns of the piece), otherwise 0 as every feature is positive and
+	 * infinity as an upper bound.
+	 * 
+	 * @param wrap
+	 *            the state, before the move
+	 * @param id
+	 *            the PlacementTable id of the move
+	 * @param mask
+	 *            the features to bound, bit (1L << index) for each
+	 * @param upperMask
+	 *            the features to bound from above, a subset of mask
+	 * @param features
+	 *            filled with the bound of each selected feature, at the same
+	 *            slot as compute(wrap, mask, features) puts it
+	 * @return false if the move loses, and then features are not filled
+	 */
+	public static boolean bound(StateWrapper wrap, int id, long mask, long upperMask, double[] features) {
+		int[] top = wrap.getTop();
+		int[] rows = wrap.getRows();
+		int height = PlacementTable.landingHeight(id, top);
+		int pieceHeight = PlacementTable.HEIGHT[id];
+		if (height + pieceHeight >= State.ROWS)
+			return false;
+
+		long unknown = mask & ~MOVE_MASK;
+		for (long m = unknown; m != 0; m &= m - 1) {
+			int f = Long.numberOfTrailingZeros(m);
+			features[slot(mask, f)] = (upperMask & 1L << f) != 0 ? Double.POSITIVE_INFINITY : 0;
+		}
+
+		int o = id * PlacementTable.MAX_WIDTH;
+		int cleared = 0, eroded = 0;
+		int rowTransitions = wrap.getRowTransitions();
+		for (int k = 0; k < pieceHeight; k++) {
+			int row = rows[height + k] | PlacementTable.ROW_MASK[o + k];
+			if (row == State.FULL_ROW) {
+				cleared++;
+				eroded += Integer.bitCount(PlacementTable.ROW_MASK[o + k]);
+			}
+			rowTransitions += BitFeatures.rowTransitions(row) - BitFeatures.rowTransitions(rows[height + k]);
+		}
+		if ((mask & 1L << LANDING_HEIGHT) != 0)
+			features[slot(mask, LANDING_HEIGHT)] = height + PlacementTable.TOP[o]
+					+ ((double) pieceHeight - 1) / 2.0;
+		if ((mask & 1L << COMPLETE_LINES) != 0)
+			features[slot(mask, COMPLETE_LINES)] = wrap.getRowsCleared() + cleared;
+		if ((mask & 1L << ERODED_PIECE_CELLS) != 0)
+			features[slot(mask, ERODED_PIECE_CELLS)] = cleared * eroded;
+		if (cleared > 0)
+			return true;
+
+		// nothing cleared: only the rows and columns of the piece change
+		if ((mask & 1L << ROW_TRANSITIONS) != 0)
+			features[slot(mask, ROW_TRANSITIONS)] = rowTransitions;
+		if ((mask & (1L << HOLES | 1L << COLUMN_TRANSITIONS)) != 0) {
+			int[] cols = wrap.getCols();
+			int slot = PlacementTable.SLOT[id];
+			int holes = wrap.getHoles(), columnTransitions = wrap.getColumnTransitions();
+			for (int c = 0; c < PlacementTable.WIDTH[id]; c++) {
+				int column = cols[slot + c] | PlacementTable.COLUMN_MASK[o + c] << height;
+				holes += BitFeatures.columnHoles(column, height + PlacementTable.TOP[o + c])
+						- BitFeatures.columnHoles(cols[slot + c], top[slot + c]);
+				columnTransitions += BitFeatures.columnTransitions(column)
+						- BitFeatures.columnTransitions(cols[slot + c]);
+			}
+			if ((mask & 1L << HOLES) != 0)
+				features[slot(mask, HOLES)] = holes;
+			if ((mask & 1L << COLUMN_TRANSITIONS) != 0)
+				features[slot(mask, COLUMN_TRANSITIONS)] = columnTransitions;
+		}
+		return true;
 	}
 
 	// returns aggregate height of the grid
@@ -20,112 +280,57 @@ public class Feature {
 
 	// returns number of holes (unfilled places) beneath top of grid
 	public int numberHoles() {
-		int holesCounter = 0;
-		int[][] field = current.getField();
-		int[] top = current.getTop();
-		for (int i = 0; i < top.length; i++) {
-			for (int j = 0; j < top[i]; j++) {
-				if (field[j][i] == 0)
-					holesCounter++;
-			}
-		}
-		return holesCounter;
+		return current.getHoles();
 	}
 	public double landingHeight() {
-		int[][] pHeight = State.getpHeight();
-		int[] top = current.getTop();
-		double landingHeight = top[move[State.SLOT]] +  ((double) pHeight[current.getNextPiece()][move[State.ORIENT]] - 1)/2.0;
-		return landingHeight;
+		return landingHeight(current);
+	}
+
+	// top of the leftmost column of the piece of the last move as it landed,
+	// before any row is cleared, plus half the piece height: the value the
+	// weights were tuned with (0 if no move was made)
+	private static double landingHeight(StateWrapper wrap) {
+		int id = wrap.getLastPlacement();
+		if (id < 0)
+			return 0;
+		return wrap.getLastLandingHeight() + PlacementTable.TOP[id * PlacementTable.MAX_WIDTH]
+				+ ((double) PlacementTable.HEIGHT[id] - 1) / 2.0;
 	}
 	public int totalRowTransitions() {
-		int row_transitions = 0;
-		int[][] field = current.getField();
-		int last_cell = 1;
-		for(int i=0; i < ROWS; i++) {
-			for(int j=0; j < COLS; j++) {
-				int current_cell = field[i][j];
-				if(current_cell != 0)
-					current_cell = 1;
-				if(current_cell != last_cell)
-					row_transitions++;
-				last_cell = current_cell;
-			}
-			last_cell = 1;
-		}
-		return row_transitions;
+		return current.getRowTransitions();
 	}
 	public int totalWells() {
-		int wells = 0;
-		int[][] field = current.getField();
-		// Wells in inner columns
-		for(int i=1; i < COLS-1; i++) {
-			for(int j=ROWS -1; j >= 0; j--) {
-				if((field[j][i] == 0) && (field[j][i-1] != 0) && (field[j][i+1] != 0)) {
-					wells++;
-					for(int k=j-1; k >= 0; k--)
-						if(field[k][i] == 0)
-							wells++;
-						else 
-							break;
-				}
-				if(field[j][i] != 0)
-					break;
-			}
-		}
-
-		// Wells in left-most column
-		for(int j=ROWS -1; j >= 0; j--) {
-			if((field[j][0] == 0) && (field[j][1] != 0)) {
-				wells++;
-				for(int k=j-1; k >= 0; k--)
-					if(field[k][0] == 0)
-						wells++;
-					else 
-						break;
-			}
-			if(field[j][0] != 0)
-					break;
-		}
-
-		// Wells in right-most column
-		for(int j=ROWS -1; j >= 0; j--) {
-			if((field[j][COLS-1] == 0) && (field[j][COLS-2] != 0)) {
-				wells++;
-				for(int k=j-1; k >= 0; k--)
-					if(field[k][COLS-1] == 0)
-						wells++;
-					else 
-						break;
-			}
-			if(field[j][COLS-1] != 0)
-					break;
-		}
-		return wells;
-
+		return current.getWells();
 	}
 
 	public int totalColumnTransitions() {
-		int col_transitions = 0;
-		int[][] field = current.getField();
-		int last_cell = 1;
-		for(int i=0; i < COLS; i++) {
-			for(int j=0; j < ROWS; j++) {
-				int current_cell = field[j][i];
-				if(current_cell != 0)
-					current_cell = 1;
-				if(current_cell != last_cell)
-					col_transitions++;
-				last_cell = current_cell;
-			}
-			last_cell = 1;
-		}
-		return col_transitions;
+		return current.getColumnTransitions();
 	}
 	// returns number of rows cleared so far
 	public int completeLines() {
 		return current.getRowsCleared();
 	}
 
+	// returns rows cleared by the move times the squares of the piece in them
+	public int erodedPieceCells() {
+		return current.getLastRowsCleared() * current.getLastClearedPieceCells();
+	}
+
+	// returns the number of filled squares above the holes
+	public int holeDepth() {
+		return BitFeatures.holeDepth(current.getRows());
+	}
+
+	// returns the number of rows with at least one hole
+	public int rowsWithHoles() {
+		return BitFeatures.rowsWithHoles(current.getRows());
+	}
+
+	// returns depth of the deepest well
+	public int maxWellDepth() {
+		return BitFeatures.maxWellDepth(current.getTop());
+	}
+
 	// returns bumpiness of grid aka sum of absolute difference between adjacent
 	// column heights
 	public int bumpiness() {
@@ -0,0 +1,147 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache from the Zobrist hash of a board to the features of that
+ * board, put in front of Feature.compute() by the players: the same boards
+ * come back again and again over long games, and in every game a trainer
+ * plays for each particle.
+ *
+ * Only the features of the board itself are cached (see Feature.MOVE_MASK for
+ * the ones depending on the move, always computed). The table is open
+ * addressing over flat primitive arrays, split in sets of WAYS entries: a
+ * board can only go in the set given by the low bits of its hash, and when
+ * the set is full the least recently used entry of the set is evicted.
+ *
+ * A cache is not thread safe, each playing thread has its own. The hit, miss
+ * and eviction counts of a cache are added to totals shared by all the caches
+ * with publish(), and read with statistics().
+ */
+public final class FeatureCache {
+	// entries per set
+	private static final int WAYS = 4;
+
+	// totals over every cache, see publish()
+	private static final LongAdder HITS = new LongAdder();
+	private static final LongAdder MISSES = new LongAdder();
+	private static final LongAdder EVICTIONS = new LongAdder();
+
+	// features filled by compute(), those cached, the slot of each cached
+	// feature among the features filled, and their number per entry
+	private final long layout;
+	private final long mask;
+	private final int[] slots;
+	private final int width;
+	private final int setMask;
+
+	// hash of the board of each entry, the use count when it was last used
+	// (0 for an empty entry) and its features, width per entry
+	private final long[] keys;
+	private final long[] used;
+	private final double[] values;
+	private long clock;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	// counts already added to the totals
+	private long publishedHits;
+	private long publishedMisses;
+	private long publishedEvictions;
+
+	/**
+	 * @param mask
+	 *            the features to compute, as for Feature.compute()
+	 * @param capacity
+	 *            number of boards kept, rounded up to a power of two
+	 */
+	public FeatureCache(long mask, int capacity) {
+		layout = mask;
+		this.mask = mask & ~Feature.MOVE_MASK;
+		width = Long.bitCount(this.mask);
+		slots = new int[width];
+		int k = 0;
+		for (int f = 0; f < Feature.NB_FEATURES; f++) {
+			if ((this.mask & 1L << f) != 0)
+				slots[k++] = Feature.slot(layout, f);
+		}
+		int size = Integer.highestOneBit(Math.max(capacity, WAYS) - 1) << 1;
+		setMask = size / WAYS - 1;
+		keys = new long[size];
+		used = new long[size];
+		values = new double[size * width];
+	}
+
+	/**
+	 * Same as Feature.compute(wrap, mask, features) for the mask of the
+	 * cache, the board features being read from the cache when the board is
+	 * in it
+	 */
+	public void compute(StateWrapper wrap, double[] features) {
+		Feature.compute(wrap, layout & Feature.MOVE_MASK, layout, features);
+		long hash = wrap.getHash();
+		int set = ((int) hash & setMask) * WAYS;
+		int victim = set;
+		for (int i = set; i < set + WAYS; i++) {
+			if (keys[i] == hash && used[i] != 0) {
+				hits++;
+				used[i] = ++clock;
+				for (int k = 0, v = i * width; k < width; k++, v++)
+					features[slots[k]] = values[v];
+				return;
+			}
+			if (used[i] < used[victim])
+				victim = i;
+		}
+
+		misses++;
+		if (used[victim] != 0)
+			evictions++;
+		Feature.compute(wrap, mask, layout, features);
+		keys[victim] = hash;
+		used[victim] = ++clock;
+		for (int k = 0, v = victim * width; k < width; k++, v++)
+			values[v] = features[slots[k]];
+	}
+
+	// number of boards the cache can hold
+	public int capacity() {
+		return keys.length;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	// add the counts of this cache since the last call to the totals
+	public void publish() {
+		HITS.add(hits - publishedHits);
+		MISSES.add(misses - publishedMisses);
+		EVICTIONS.add(evictions - publishedEvictions);
+		publishedHits = hits;
+		publishedMisses = misses;
+		publishedEvictions = evictions;
+	}
+
+	// hits, misses and evictions published by all the caches
+	public static String statistics() {
+		long hits = HITS.sum();
+		long lookups = hits + MISSES.sum();
+		return "feature cache: " + hits + " hits, " + MISSES.sum() + " misses, " + EVICTIONS.sum()
+				+ " evictions, hit rate " + (lookups == 0 ? 0 : 100 * hits / lookups) + "%";
+	}
+
+	@Override
+	public String toString() {
+		long lookups = hits + misses;
+		return "feature cache of " + capacity() + ": " + hits + " hits, " + misses + " misses, " + evictions
+				+ " evictions, hit rate " + (lookups == 0 ? 0 : 100 * hits / lookups) + "%";
+	}
+}
@@ -0,0 +1,267 @@
+import java.util.Arrays;
+
+/**
+ * Differential check of the feature implementations: plays seeded games and,
+ * for every candidate move, compares the square by square definitions of the
+ * features (the original Feature code, kept here on the 0/1 field) with
+ * BitFeatures on the packed board and with the values Feature reads from
+ * StateWrapper or computes in Feature.compute(), and checks the search state
+ * ends up on the board State plays and that no score is above the bound of
+ * FeatureSet.Evaluator.bound(). Stops at the first difference.
+ *
+ * Usage: java FeatureCheck [games] [moves per game]
+ */
+public class FeatureCheck {
+	private static final int COLS = State.COLS;
+	private static final int ROWS = State.ROWS;
+
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int moves = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		PlayerSkeleton player = new PlayerSkeleton();
+		// evaluators whose bounds are checked, weights of both signs
+		FeatureSet.Evaluator[] evaluators = new FeatureSet.Evaluator[2];
+		evaluators[0] = FeatureSet.DEFAULT.evaluator(new double[] { -1, 2, -1, -3, -4, 1 });
+		double[] weights = new double[FeatureSet.EXTENDED.size()];
+		for (int k = 0; k < weights.length; k++)
+			weights[k] = k % 3 == 0 ? 1 + k : -1 - k;
+		evaluators[1] = FeatureSet.EXTENDED.evaluator(weights);
+		double[] bounds = new double[evaluators.length];
+		double[] buffer = new double[Feature.NB_FEATURES];
+		long checked = 0;
+		for (int g = 0; g < games; g++) {
+			State s = new State(new RandomPieceSource(g));
+			while (!s.hasLost() && s.getTurnNumber() < moves) {
+				StateWrapper wrap = new StateWrapper(s);
+				check(wrap);
+				for (int i = 0; i < wrap.legalMoves().length; i++) {
+					for (int e = 0; e < evaluators.length; e++)
+						bounds[e] = evaluators[e].bound(wrap, i, buffer);
+					if (wrap.makeMove(i)) {
+						check(wrap);
+						for (int e = 0; e < evaluators.length; e++) {
+							double score = evaluators[e].evaluate(wrap, buffer);
+							if (score > bounds[e])
+								throw new IllegalStateException("score " + score + " above its bound " + bounds[e]);
+						}
+						checked++;
+						wrap.undoMove();
+						check(wrap);
+					}
+				}
+				int move = player.pickMove(s, s.legalMoves());
+				boolean played = wrap.makeMove(move);
+				s.makeMove(move);
+				if (played != !s.hasLost())
+					throw new IllegalStateException("StateWrapper and State disagree on losing");
+				if (played)
+					sameBoard(wrap, s);
+			}
+		}
+		System.out.println("All features identical on " + checked + " boards");
+	}
+
+	private static void check(StateWrapper wrap) {
+		int[][] field = wrap.getField();
+		int[] rows = wrap.getRows();
+		int[] top = wrap.getTop();
+		Feature feature = new Feature(wrap);
+		double[] computed = new double[Feature.NB_FEATURES];
+		Feature.compute(wrap, Feature.ALL_MASK & ~(1L << Feature.LANDING_HEIGHT), Feature.ALL_MASK, computed);
+		compare("holes", numberHoles(field, top), BitFeatures.holes(rows), feature.numberHoles());
+		compare("row transitions", totalRowTransitions(field), BitFeatures.rowTransitions(rows),
+				feature.totalRowTransitions());
+		compare("column transitions", totalColumnTransitions(field), BitFeatures.columnTransitions(rows),
+				feature.totalColumnTransitions());
+		compare("wells", totalWells(field), BitFeatures.wells(rows, top), feature.totalWells());
+		int[] heights = columnHeights(field);
+		compare("aggregate height", aggregateHeight(heights), BitFeatures.aggregateHeight(top),
+				feature.aggregateHeight());
+		compare("bumpiness", bumpiness(heights), BitFeatures.bumpiness(top), feature.bumpiness());
+		compare("max height", maxHeight(heights), BitFeatures.maxHeight(top), feature.maxHeight());
+		compare("min height", minHeight(heights), BitFeatures.minHeight(top), feature.minHeight());
+		compare("hole depth", holeDepth(field, top), BitFeatures.holeDepth(rows), (int) computed[Feature.HOLE_DEPTH]);
+		compare("rows with holes", rowsWithHoles(field, top), BitFeatures.rowsWithHoles(rows),
+				(int) computed[Feature.ROWS_WITH_HOLES]);
+		compare("max well depth", maxWellDepth(heights), BitFeatures.maxWellDepth(top),
+				(int) computed[Feature.MAX_WELL_DEPTH]);
+		compare("aggregate height", aggregateHeight(heights), BitFeatures.aggregateHeight(top),
+				(int) computed[Feature.AGGREGATE_HEIGHT]);
+		compare("bumpiness", bumpiness(heights), BitFeatures.bumpiness(top), (int) computed[Feature.BUMPINESS]);
+		compare("max height", maxHeight(heights), BitFeatures.maxHeight(top), (int) computed[Feature.MAX_HEIGHT]);
+		compare("min height", minHeight(heights), BitFeatures.minHeight(top), (int) computed[Feature.MIN_HEIGHT]);
+		for (int c = 0; c < COLS; c++) {
+			compare("height of column " + c, heights[c], top[c], (int) computed[Feature.COLUMN_HEIGHT + c]);
+			if (c < COLS - 1)
+				compare("height difference " + c, Math.abs(heights[c + 1] - heights[c]),
+						Math.abs(top[c + 1] - top[c]), (int) computed[Feature.HEIGHT_DIFFERENCE + c]);
+		}
+	}
+
+	// the search state after a move is the board State produces
+	private static void sameBoard(StateWrapper wrap, State s) {
+		if (!Arrays.equals(wrap.getRows(), s.getRows()) || !Arrays.equals(wrap.getTop(), s.getTop())
+				|| wrap.getHash() != s.getHash())
+			throw new IllegalStateException("StateWrapper and State boards differ at turn " + s.getTurnNumber());
+	}
+
+	private static void compare(String name, int scalar, int bitwise, int incremental) {
+		if (scalar != bitwise || scalar != incremental)
+			throw new IllegalStateException(name + ": square by square " + scalar + ", bitwise " + bitwise
+					+ ", incremental " + incremental);
+	}
+
+	// reference definitions, square by square
+
+	// height of each column: one above its highest filled square
+	private static int[] columnHeights(int[][] field) {
+		int[] heights = new int[COLS];
+		for (int i = 0; i < COLS; i++) {
+			for (int j = ROWS - 1; j >= 0; j--) {
+				if (field[j][i] != 0) {
+					heights[i] = j + 1;
+					break;
+				}
+			}
+		}
+		return heights;
+	}
+
+	private static int aggregateHeight(int[] heights) {
+		int sum = 0;
+		for (int i = 0; i < COLS; i++)
+			sum += heights[i];
+		return sum;
+	}
+
+	private static int bumpiness(int[] heights) {
+		int sum = 0;
+		for (int i = 0; i < COLS - 1; i++)
+			sum += Math.abs(heights[i + 1] - heights[i]);
+		return sum;
+	}
+
+	// first column of the highest height
+	private static int maxHeight(int[] heights) {
+		int col = 0;
+		for (int i = 1; i < COLS; i++) {
+			if (heights[i] > heights[col])
+				col = i;
+		}
+		return col;
+	}
+
+	// first column of the lowest height
+	private static int minHeight(int[] heights) {
+		int col = 0;
+		for (int i = 1; i < COLS; i++) {
+			if (heights[i] < heights[col])
+				col = i;
+		}
+		return col;
+	}
+
+	private static int numberHoles(int[][] field, int[] top) {
+		int holesCounter = 0;
+		for (int i = 0; i < top.length; i++) {
+			for (int j = 0; j < top[i]; j++) {
+				if (field[j][i] == 0)
+					holesCounter++;
+			}
+		}
+		return holesCounter;
+	}
+
+	private static int totalRowTransitions(int[][] field) {
+		int row_transitions = 0;
+		int last_cell = 1;
+		for (int i = 0; i < ROWS; i++) {
+			for (int j = 0; j < COLS; j++) {
+				int current_cell = field[i][j];
+				if (current_cell != 0)
+					current_cell = 1;
+				if (current_cell != last_cell)
+					row_transitions++;
+				last_cell = current_cell;
+			}
+			last_cell = 1;
+		}
+		return row_transitions;
+	}
+
+	private static int totalColumnTransitions(int[][] field) {
+		int col_transitions = 0;
+		int last_cell = 1;
+		for (int i = 0; i < COLS; i++) {
+			for (int j = 0; j < ROWS; j++) {
+				int current_cell = field[j][i];
+				if (current_cell != 0)
+					current_cell = 1;
+				if (current_cell != last_cell)
+					col_transitions++;
+				last_cell = current_cell;
+			}
+			last_cell = 1;
+		}
+		return col_transitions;
+	}
+
+	private static int holeDepth(int[][] field, int[] top) {
+		int depth = 0;
+		for (int i = 0; i < COLS; i++) {
+			for (int j = 0; j < top[i]; j++) {
+				if (field[j][i] == 0) {
+					for (int k = j + 1; k < top[i]; k++)
+						if (field[k][i] != 0)
+							depth++;
+				}
+			}
+		}
+		return depth;
+	}
+
+	private static int rowsWithHoles(int[][] field, int[] top) {
+		int count = 0;
+		for (int j = 0; j < ROWS; j++) {
+			for (int i = 0; i < COLS; i++) {
+				if (field[j][i] == 0 && j < top[i]) {
+					count++;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static int maxWellDepth(int[] heights) {
+		int depth = 0;
+		for (int i = 0; i < COLS; i++) {
+			int left = i == 0 ? ROWS : heights[i - 1];
+			int right = i == COLS - 1 ? ROWS : heights[i + 1];
+			if (Math.min(left, right) - heights[i] > depth)
+				depth = Math.min(left, right) - heights[i];
+		}
+		return depth;
+	}
+
+	private static int totalWells(int[][] field) {
+		int wells = 0;
+		for (int i = 0; i < COLS; i++) {
+			for (int j = ROWS - 1; j >= 0; j--) {
+				boolean left = i == 0 || field[j][i - 1] != 0;
+				boolean right = i == COLS - 1 || field[j][i + 1] != 0;
+				if ((field[j][i] == 0) && left && right) {
+					wells++;
+					for (int k = j - 1; k >= 0; k--)
+						if (field[k][i] == 0)
+							wells++;
+						else
+							break;
+				}
+				if (field[j][i] != 0)
+					break;
+			}
+		}
+		return wells;
+	}
+}
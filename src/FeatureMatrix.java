@@ -0,0 +1,115 @@
+/**
+ * The features of all the candidate moves of a turn, to be scored together
+ * (see FeatureSet.Evaluator.best()) instead of one candidate at a time.
+ *
+ * The matrix is feature-major: the k-th feature filled by Feature.compute()
+ * for the mask of the set, of every candidate, is in one run of the flat array, so scoring is, for each feature, the same
+ * multiply-add over a run of candidates. That inner loop has no branch and no
+ * dependency between candidates, which the JIT compiles to SIMD instructions
+ * on its own, and the argmax is a single pass keeping the first candidate of
+ * strictly higher score. Scores are summed over the features in the order of
+ * FeatureSet.Evaluator.score(), so they are the same doubles and the move
+ * picked is the same.
+ *
+ * The batch cannot skip candidates on their bound, since no best score is
+ * known before all of them are scored: it pays off when computing the
+ * features is cheap next to scoring them, with many features.
+ */
+public final class FeatureMatrix {
+	private final FeatureSet set;
+	// candidates a matrix holds, the most legal moves of a piece
+	private final int capacity;
+	// feature k of candidate c at k * capacity + c
+	private final double[] values;
+	private final int[] moves;
+	private final double[] scores;
+	private int size;
+
+	/**
+	 * @param set
+	 *            the features stored, those of the evaluators scoring it
+	 */
+	public FeatureMatrix(FeatureSet set) {
+		this.set = set;
+		capacity = PlacementIndex.MAX_MOVES;
+		values = new double[set.size() * capacity];
+		moves = new int[capacity];
+		scores = new double[capacity];
+	}
+
+	// remove all the candidates
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Add the candidate of a state right after a move
+	 *
+	 * @param wrap
+	 *            the state, after makeMove(index)
+	 * @param index
+	 *            index of the move in legalMoves
+	 * @param buffer
+	 *            Feature.NB_FEATURES long, used to compute the features
+	 */
+	public void add(StateWrapper wrap, int index, double[] buffer) {
+		Feature.compute(wrap, set.mask(), buffer);
+		int c = size++;
+		for (int k = 0; k < set.size(); k++)
+			values[k * capacity + c] = buffer[k];
+		moves[c] = index;
+	}
+
+	// number of candidates
+	public int size() {
+		return size;
+	}
+
+	// index in legalMoves of candidate c
+	public int move(int c) {
+		return moves[c];
+	}
+
+	// score of candidate c, once best() has run
+	public double score(int c) {
+		return scores[c];
+	}
+
+	/**
+	 * Score every candidate with a weight per feature of the set, in the
+	 * order of Feature.compute(), see FeatureSet.Evaluator.best()
+	 *
+	 * @return the first candidate of highest score, -1 if there is none or
+	 *         no score is above -infinity
+	 */
+	int best(double[] weights) {
+		if (weights.length != set.size())
+			throw new IllegalArgumentException(weights.length + " weights given for the " + set.size()
+					+ " features of feature set " + set.getName());
+		int n = size;
+		if (n == 0)
+			return -1;
+		// score() starts from 0 + w0 * v0, which only differs from w0 * v0
+		// by the sign of a zero
+		double w0 = weights[0];
+		for (int c = 0; c < n; c++)
+			scores[c] = w0 * values[c];
+		for (int k = 1; k < weights.length; k++) {
+			double w = weights[k];
+			int base = k * capacity;
+			for (int c = 0; c < n; c++)
+				scores[c] += w * values[base + c];
+		}
+		// as the loop keeping strictly higher scores: a NaN score is never
+		// picked, nor is -infinity
+		int best = -1;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < n; c++) {
+			if (scores[c] > max) {
+				best = c;
+				max = scores[c];
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,248 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An ordered set of features (indices of Feature) a player weights, registered
+ * under a name. The weight vectors of the players and trainers follow the
+ * order of their set, so its size is the number of weights to train.
+ *
+ * The score of a move is computed by the set's Evaluator: a single final
+ * class (the call is never megamorphic) looping over plain arrays of the set's
+ * size. Feature.compute() packs the features of the set densely, and the
+ * evaluator keeps its weights in that order, so the loop reads both arrays at
+ * the same index: the JIT unrolls it and hoists its range checks.
+ */
+public final class FeatureSet {
+	private static final Map<String, FeatureSet> REGISTRY = new ConcurrentHashMap<>();
+
+	// the six features PlayerSkeleton was tuned with
+	public static final FeatureSet DEFAULT = register("default", Feature.LANDING_HEIGHT, Feature.COMPLETE_LINES,
+			Feature.ROW_TRANSITIONS, Feature.COLUMN_TRANSITIONS, Feature.HOLES, Feature.WELLS);
+
+	// Dellacherie's features with the holes and surface features of Bertsekas
+	// and Thiery & Scherrer, for policies trained from scratch
+	public static final FeatureSet EXTENDED = register("extended", extended());
+
+	// boards kept by the feature cache of each playing thread
+	public static final int CACHE_CAPACITY = 1 << 14;
+
+	private final String name;
+	private final int[] features;
+	private final long mask;
+	// feature cache of each playing thread, shared by all the players of the
+	// set since the features of a board do not depend on the weights
+	private final ThreadLocal<FeatureCache> cache = ThreadLocal.withInitial(this::newCache);
+	// candidate matrix of each playing thread, shared the same way
+	private final ThreadLocal<FeatureMatrix> matrix = ThreadLocal.withInitial(() -> new FeatureMatrix(this));
+
+	private FeatureSet(String name, int[] features) {
+		this.name = name;
+		this.features = features;
+		long mask = 0;
+		for (int f : features)
+			mask |= 1L << f;
+		this.mask = mask;
+	}
+
+	/**
+	 * Register a set of features under a name, replacing any set of that name
+	 * 
+	 * @param name
+	 *            the name to find it with get()
+	 * @param features
+	 *            the features, in the order of the weights
+	 * @return the set
+	 */
+	public static FeatureSet register(String name, int... features) {
+		long mask = 0;
+		for (int f : features) {
+			if (f < 0 || f >= Feature.NB_FEATURES)
+				throw new IllegalArgumentException("Unknown feature " + f + " in feature set " + name);
+			if ((mask & 1L << f) != 0)
+				throw new IllegalArgumentException("Feature " + Feature.name(f) + " twice in feature set " + name);
+			mask |= 1L << f;
+		}
+		FeatureSet set = new FeatureSet(name, features.clone());
+		REGISTRY.put(name, set);
+		return set;
+	}
+
+	private static int[] extended() {
+		int[] features = new int[9 + 2 * Feature.COLS - 1];
+		int k = 0;
+		for (int f : new int[] { Feature.LANDING_HEIGHT, Feature.ERODED_PIECE_CELLS, Feature.ROW_TRANSITIONS,
+				Feature.COLUMN_TRANSITIONS, Feature.HOLES, Feature.WELLS, Feature.HOLE_DEPTH, Feature.ROWS_WITH_HOLES,
+				Feature.MAX_WELL_DEPTH })
+			features[k++] = f;
+		for (int c = 0; c < Feature.COLS; c++)
+			features[k++] = Feature.COLUMN_HEIGHT + c;
+		for (int c = 0; c < Feature.COLS - 1; c++)
+			features[k++] = Feature.HEIGHT_DIFFERENCE + c;
+		return features;
+	}
+
+	// the set registered under that name, null if there is none
+	public static FeatureSet get(String name) {
+		return REGISTRY.get(name);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// number of features, i.e. of weights
+	public int size() {
+		return features.length;
+	}
+
+	// feature given the k-th weight
+	public int feature(int k) {
+		return features[k];
+	}
+
+	// mask of the features, to pass to Feature.compute()
+	public long mask() {
+		return mask;
+	}
+
+	// a new feature cache for the features of the set
+	public FeatureCache newCache() {
+		return new FeatureCache(mask, CACHE_CAPACITY);
+	}
+
+	// the feature cache of the calling thread for the features of the set
+	public FeatureCache cache() {
+		return cache.get();
+	}
+
+	// the candidate matrix of the calling thread for the features of the set
+	public FeatureMatrix matrix() {
+		return matrix.get();
+	}
+
+	// evaluator scoring moves with a weight per feature of the set
+	public Evaluator evaluator(double[] weights) {
+		if (weights.length != features.length)
+			throw new IllegalArgumentException(weights.length + " weights given for the " + features.length
+					+ " features of feature set " + name);
+		return new Evaluator(this, weights);
+	}
+
+	@Override
+	public String toString() {
+		String[] names = new String[features.length];
+		for (int k = 0; k < features.length; k++)
+			names[k] = Feature.name(features[k]);
+		return name + Arrays.toString(names);
+	}
+
+	/**
+	 * Linear combination of the features of a set
+	 */
+	public static final class Evaluator {
+		private final long mask;
+		// features with a positive weight, the higher the better
+		private final long upperMask;
+		// whether bound() can be finite, see prunes()
+		private final boolean prunes;
+		// weight of each feature at its slot in the arrays Feature.compute()
+		// fills for the mask, not in the order of the set
+		private final double[] weights;
+
+		private Evaluator(FeatureSet set, double[] weights) {
+			this.mask = set.mask;
+			this.weights = new double[weights.length];
+			long upperMask = 0;
+			for (int k = 0; k < weights.length; k++) {
+				int f = set.features[k];
+				this.weights[Feature.slot(mask, f)] = weights[k];
+				if (weights[k] > 0)
+					upperMask |= 1L << f;
+			}
+			this.upperMask = upperMask;
+			prunes = (upperMask & ~Feature.UPPER_BOUNDED_MASK) == 0;
+		}
+
+		// true if every feature of positive weight has an upper bound (see
+		// Feature.UPPER_BOUNDED_MASK); otherwise bound() is always infinity
+		// and skips no move, so it returns at once
+		public boolean prunes() {
+			return prunes;
+		}
+
+		/**
+		 * Score of a state right after a move
+		 * 
+		 * @param wrap
+		 *            the state, after makeMove()
+		 * @param buffer
+		 *            Feature.NB_FEATURES long, used to compute the features
+		 * @return the weighted sum of the features of the set
+		 */
+		public double evaluate(StateWrapper wrap, double[] buffer) {
+			Feature.compute(wrap, mask, buffer);
+			return score(buffer);
+		}
+
+		/**
+		 * Same as evaluate(wrap, buffer), the features of the board
+		 * being read from a cache when it has them
+		 * 
+		 * @param cache
+		 *            a cache of the features of the set, see cache()
+		 */
+		public double evaluate(StateWrapper wrap, double[] buffer, FeatureCache cache) {
+			cache.compute(wrap, buffer);
+			return score(buffer);
+		}
+
+		/**
+		 * A score the move cannot beat, computed without making it (see
+		 * Feature.bound()): a move whose bound is not above the best score
+		 * found so far can be skipped. The bound of each feature is on the
+		 * right side of its value for its weight, and rounding is monotonic,
+		 * so summed in the same order as score() the bound is never below the
+		 * score however it rounds.
+		 * 
+		 * @param wrap
+		 *            the state, before the move
+		 * @param move
+		 *            index of the move in wrap.legalMoves()
+		 * @param buffer
+		 *            Feature.NB_FEATURES long, used to bound the features
+		 * @return the bound, infinity if the move loses or the evaluator does
+		 *         not prune (see prunes())
+		 */
+		public double bound(StateWrapper wrap, int move, double[] buffer) {
+			int id = PlacementTable.id(wrap.getNextPiece(), move);
+			if (!prunes)
+				return Double.POSITIVE_INFINITY;
+			if (!Feature.bound(wrap, id, mask, upperMask, buffer))
+				return Double.POSITIVE_INFINITY;
+			return score(buffer);
+		}
+
+		/**
+		 * Score all the candidates of a matrix at once
+		 * 
+		 * @param matrix
+		 *            candidates with the features of the set
+		 * @return the first candidate of highest score (the one the loop
+		 *         keeping strictly higher scores picks), -1 if there is none
+		 *         or no score is above -infinity
+		 */
+		public int best(FeatureMatrix matrix) {
+			return matrix.best(weights);
+		}
+
+		// weighted sum of features already computed by Feature.compute() for
+		// the mask of the set
+		public double score(double[] values) {
+			double score = 0;
+			for (int k = 0; k < weights.length; k++)
+				score += weights[k] * values[k];
+			return score;
+		}
+	}
+}
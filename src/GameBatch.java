@@ -0,0 +1,130 @@
+/**
+ * Plays many games in lockstep, one placement per live game per step(), with
+ * every game stored in flat primitive arrays instead of a State per game.
+ *
+ * Game g of the batch lives in boards[g*StateWrapper.SAVED_SIZE ..] (the
+ * board with its column masks and features, see StateWrapper.save()) and the
+ * g-th entry of the other arrays. A step restores each board into one
+ * StateWrapper, so the move is searched and made incrementally without
+ * computing the features again, and saves it back. When a game ends (lost or move cutoff reached)
+ * its score is saved and the last live game is moved into its place, so the
+ * live games always are 0 .. live-1.
+ *
+ * Game i (0 .. nbGames-1) is seeded like PlayerSkeletonTrain seeds it, so a
+ * batch scores exactly the same as playing the games one State at a time.
+ */
+public class GameBatch {
+	private final PlayerSkeletonTrain player;
+	private final int move_cutoff_num;
+
+	// boards of the live games, with their features
+	private final int[] boards;
+	// piece generator state (see RandomPieceSource) and piece to play
+	private final long[] pieceState;
+	private final int[] piece;
+	// moves made and rows cleared so far
+	private final int[] moves;
+	private final int[] cleared;
+	// number in the batch of the game in each slot
+	private final int[] game;
+	private int live;
+
+	// rows cleared by each finished game, by game number
+	private final long[] scores;
+
+	// search state each game is loaded into to pick its move
+	private final StateWrapper wrap = new StateWrapper();
+
+	/**
+	 * @param player
+	 *            picks the moves of every game
+	 * @param seed
+	 *            game i is seeded with seed + firstGame + i
+	 * @param firstGame
+	 *            number of the first game of the batch
+	 * @param nbGames
+	 *            number of games to play
+	 * @param move_cutoff_num
+	 *            number of moves after which a game is stopped
+	 */
+	public GameBatch(PlayerSkeletonTrain player, long seed, int firstGame, int nbGames, int move_cutoff_num) {
+		this.player = player;
+		this.move_cutoff_num = move_cutoff_num;
+		boards = new int[nbGames * StateWrapper.SAVED_SIZE];
+		pieceState = new long[nbGames];
+		piece = new int[nbGames];
+		moves = new int[nbGames];
+		cleared = new int[nbGames];
+		game = new int[nbGames];
+		scores = new long[nbGames];
+		for (int g = 0; g < nbGames; g++) {
+			pieceState[g] = RandomPieceSource.advance(seed + firstGame + g);
+			piece[g] = RandomPieceSource.piece(pieceState[g]);
+			game[g] = g;
+			wrap.save(boards, g * StateWrapper.SAVED_SIZE);
+		}
+		live = nbGames;
+	}
+
+	// number of games still being played
+	public int getLive() {
+		return live;
+	}
+
+	/**
+	 * Make one move in every live game, then drop the games that are over
+	 */
+	public void step() {
+		int g = 0;
+		while (g < live) {
+			wrap.restore(boards, g * StateWrapper.SAVED_SIZE, piece[g]);
+			boolean alive = wrap.makeMove(player.pickMove(wrap));
+			moves[g]++;
+			if (alive) {
+				wrap.save(boards, g * StateWrapper.SAVED_SIZE);
+				cleared[g] += wrap.getRowsCleared();
+				pieceState[g] = RandomPieceSource.advance(pieceState[g]);
+				piece[g] = RandomPieceSource.piece(pieceState[g]);
+			}
+			if (!alive || moves[g] >= move_cutoff_num) {
+				scores[game[g]] = cleared[g];
+				remove(g);
+			} else {
+				g++;
+			}
+		}
+	}
+
+	/**
+	 * Step until every game is over
+	 *
+	 * @return the total score over all the games
+	 */
+	public long play() {
+		while (live > 0)
+			step();
+		long sum = 0;
+		for (int i = 0; i < scores.length; i++)
+			sum += scores[i];
+		return sum;
+	}
+
+	// rows cleared by each game, by game number (0 for games not over yet)
+	public long[] getScores() {
+		return scores;
+	}
+
+	// move the last live game into slot g
+	private void remove(int g) {
+		live--;
+		if (g == live)
+			return;
+		System.arraycopy(boards, live * StateWrapper.SAVED_SIZE, boards, g * StateWrapper.SAVED_SIZE,
+				StateWrapper.SAVED_SIZE);
+		pieceState[g] = pieceState[live];
+		piece[g] = piece[live];
+		moves[g] = moves[live];
+		cleared[g] = cleared[live];
+		game[g] = game[live];
+	}
+}
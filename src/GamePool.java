@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Threads shared by the trainers to play their games in parallel, one per
+ * core, started once and kept for the whole run instead of a thread per core
+ * per evaluation.
+ *
+ * Work is submitted as numbered tasks (a game, a weight vector...) that the
+ * threads take as they get free, and each result is stored under the number
+ * of its task, so totals are summed in task order whatever thread played
+ * what. A task submitting tasks itself (a trainer evaluating players that
+ * play games) runs them on its own thread, since the others may all be
+ * waiting for their own. Running tasks count as games for SearchPool.
+ */
+public final class GamePool {
+	public static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, Worker::new);
+
+	private GamePool() {
+	}
+
+	private static final class Worker extends Thread {
+		private static int count;
+
+		Worker(Runnable task) {
+			super(task, "game-" + next());
+			setDaemon(true);
+		}
+
+		private static synchronized int next() {
+			return count++;
+		}
+	}
+
+	/**
+	 * Run tasks 0 .. n-1 on the pool and wait for all of them
+	 *
+	 * @param n
+	 *            number of tasks
+	 * @param task
+	 *            runs task k, called once per task
+	 */
+	public static void run(int n, IntConsumer task) {
+		if (n <= 1 || Thread.currentThread() instanceof Worker) {
+			for (int k = 0; k < n; k++)
+				task.accept(k);
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<>(n);
+		for (int k = 0; k < n; k++) {
+			final int index = k;
+			futures.add(POOL.submit(() -> {
+				SearchPool.gameStarted();
+				try {
+					task.accept(index);
+				} finally {
+					SearchPool.gameFinished();
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the games", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Same as run(), for tasks with a result
+	 *
+	 * @return the result of each task, by task number
+	 */
+	public static long[] play(int n, IntToLongFunction task) {
+		long[] results = new long[n];
+		run(n, k -> results[k] = task.applyAsLong(k));
+		return results;
+	}
+}
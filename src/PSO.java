@@ -4,18 +4,26 @@ import java.util.Arrays;
 import net.sourceforge.jswarm_pso.*;
 
 public class PSO {
-	public static final int NB_FEATURES = 6;//8;
+	public static final FeatureSet FEATURES = FeatureSet.DEFAULT;
+	public static final int NB_FEATURES = FEATURES.size();
 	public static final int GAMES = 16;
 	public static final int MOVE_CUTOFF_NUM = 10_000_000;//Integer.MAX_VALUE;
 	public static final int NB_PARTICULES = 25;
 	public static final int NB_EVOLUTION = 20;
+	// pick the moves with a 2-ply search, far slower but clearing far more
+	// lines: lower MOVE_CUTOFF_NUM with it
+	public static final boolean LOOKAHEAD = false;
+	// cache the board features across the games and particles
+	public static final boolean FEATURE_CACHE = false;
 	private final Swarm swarm;
 
 	public static class TetrisFitnessFunction extends FitnessFunction {
 
 		@Override
 		public double evaluate(double[] weights) {
-			PlayerSkeletonTrain player = new PlayerSkeletonTrain(weights, GAMES, MOVE_CUTOFF_NUM);
+			PlayerSkeletonTrain player = new PlayerSkeletonTrain(FEATURES, weights, GAMES, MOVE_CUTOFF_NUM);
+			player.setFeatureCache(FEATURE_CACHE);
+			player.setLookahead(LOOKAHEAD);
 			return player.play();
 			/*double score = player.play();
 			System.out.println(Arrays.toString(weights) + " " + score);
@@ -33,9 +41,15 @@ public class PSO {
 	public PSO() {
 		swarm = new Swarm(NB_PARTICULES, new TetrisParticle(), new TetrisFitnessFunction());
 		//double max[] = {-2, 9, -1, -7, -9.5, -1.5};
-		double max[] = {0, 10, 0, 0 , 0, 0};
 		//double min[] = {-3, 6.5, -3, -8.5, -10, -3};
-		double min[] = {-10, 5, -10, -10, -10, -10};
+		// rewards in [5, 10], penalties in [-10, 0]
+		double max[] = new double[NB_FEATURES];
+		double min[] = new double[NB_FEATURES];
+		for (int k = 0; k < NB_FEATURES; k++) {
+			boolean reward = Feature.isReward(FEATURES.feature(k));
+			max[k] = reward ? 10 : 0;
+			min[k] = reward ? 5 : -10;
+		}
 		swarm.setMaxPosition(max);
 		swarm.setMinPosition(min);
 		swarm.setMaxMinVelocity(0.5);
@@ -53,6 +67,8 @@ public class PSO {
 			System.out.println(str);
 		}
 		System.out.println(swarm.toStringStats());
+		if (FEATURE_CACHE)
+			System.out.println(FeatureCache.statistics());
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,9 @@
+/**
+ * Where a State draws its pieces from. A source belongs to a single State and
+ * is only used from the thread playing it, so implementations need no
+ * synchronization.
+ */
+public interface PieceSource {
+	// next piece to play, 0 to State.N_PIECES-1
+	int nextPiece();
+}
@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/**
+ * Maps the legal moves of each piece to canonical ones, so that searches
+ * evaluate each distinct outcome once.
+ *
+ * Two moves of a piece are the same placement when they fill the same squares
+ * (same rows of PlacementTable.ROW_MASK), which happens with rule sets listing
+ * rotations of symmetric pieces as orientations: they land at the same height
+ * on every board and give the same board and features. moves(piece) lists one
+ * legal move per placement, the first of State.legalMoves.
+ *
+ * Different placements can still give the same board once rows are cleared.
+ * That does not matter to a player scoring its own move (the move features,
+ * landing height for one, differ), but a lookahead only cares about the board
+ * it reaches: Outcomes tells the boards already seen from the board hashes.
+ */
+public final class PlacementIndex {
+	// canonical legal moves of each piece
+	private static final int[][] MOVES = new int[State.N_PIECES][];
+	// canonical move of each placement id
+	private static final int[] CANONICAL = new int[PlacementTable.SIZE];
+	// most legal moves of a piece
+	public static final int MAX_MOVES;
+
+	static {
+		int max = 0;
+		for (int p = 0; p < State.N_PIECES; p++) {
+			int first = PlacementTable.first(p);
+			int[] moves = new int[PlacementTable.count(p)];
+			int n = 0;
+			for (int i = 0; i < moves.length; i++) {
+				int same = -1;
+				for (int j = 0; j < n && same < 0; j++) {
+					if (sameSquares(first + i, first + moves[j]))
+						same = moves[j];
+				}
+				if (same < 0)
+					moves[n++] = same = i;
+				CANONICAL[first + i] = same;
+			}
+			MOVES[p] = Arrays.copyOf(moves, n);
+			max = Math.max(max, moves.length);
+		}
+		MAX_MOVES = max;
+	}
+
+	private PlacementIndex() {
+	}
+
+	// true if two placements fill the same squares
+	private static boolean sameSquares(int a, int b) {
+		if (PlacementTable.HEIGHT[a] != PlacementTable.HEIGHT[b])
+			return false;
+		for (int k = 0; k < PlacementTable.MAX_HEIGHT; k++) {
+			if (PlacementTable.ROW_MASK[a * PlacementTable.MAX_HEIGHT + k] != PlacementTable.ROW_MASK[b
+					* PlacementTable.MAX_HEIGHT + k])
+				return false;
+		}
+		return true;
+	}
+
+	// one legal move (index in State.legalMoves[piece]) per placement of the
+	// piece, in increasing order
+	public static int[] moves(int piece) {
+		return MOVES[piece];
+	}
+
+	// the canonical legal move giving the same placement as a legal move
+	public static int canonical(int piece, int move) {
+		return CANONICAL[PlacementTable.id(piece, move)];
+	}
+
+	/**
+	 * Boards reached from one board by the moves of a piece, by hash: add()
+	 * the hash of each board after the move, skip the move if it was already
+	 * there. Holds at most the number of placements of a piece.
+	 */
+	public static final class Outcomes {
+		private final long[] hashes = new long[MAX_MOVES];
+		private int size;
+
+		// forget the boards seen, for the next board
+		public void clear() {
+			size = 0;
+		}
+
+		// add the hash of a board, false if it was already seen
+		public boolean add(long hash) {
+			for (int i = 0; i < size; i++) {
+				if (hashes[i] == hash)
+					return false;
+			}
+			hashes[size++] = hash;
+			return true;
+		}
+	}
+}
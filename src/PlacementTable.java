@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+/**
+ * Every placement of every piece, flattened into primitive arrays built once
+ * at class load.
+ *
+ * A placement is identified by its id: the placements of a piece are numbered
+ * first(piece) .. first(piece)+count(piece)-1 in the order of
+ * State.legalMoves[piece], so legal move index i of piece p is placement
+ * first(p)+i. The per column arrays hold MAX_WIDTH entries per placement and
+ * the per row masks MAX_HEIGHT entries, both starting at id*4.
+ */
+public final class PlacementTable {
+	public static final int MAX_WIDTH = 4;
+	public static final int MAX_HEIGHT = 4;
+
+	// number of placements over all the pieces
+	public static final int SIZE;
+
+	// piece, orientation, leftmost column, width and height of each placement
+	static final int[] PIECE;
+	static final int[] ORIENT;
+	static final int[] SLOT;
+	static final int[] WIDTH;
+	static final int[] HEIGHT;
+	// lowest filled square of each column of the piece, relative to its bottom
+	static final int[] BOTTOM;
+	// top (highest filled square + 1) of each column, relative to its bottom
+	static final int[] TOP;
+	// squares filled in each row of the piece, already shifted to the slot
+	static final int[] ROW_MASK;
+	// squares filled in each column of the piece, bit r for its row r
+	static final int[] COLUMN_MASK;
+
+	// first placement of each piece, and number of placements
+	private static final int[] FIRST = new int[State.N_PIECES];
+	private static final int[] COUNT = new int[State.N_PIECES];
+	// placement of [piece][orient][slot], flattened, -1 for illegal moves
+	private static final int[] ID = new int[State.N_PIECES * MAX_WIDTH * State.COLS];
+
+	static {
+		Arrays.fill(ID, -1);
+		int size = 0;
+		for (int p = 0; p < State.N_PIECES; p++) {
+			FIRST[p] = size;
+			COUNT[p] = State.legalMoves[p].length;
+			size += COUNT[p];
+		}
+		SIZE = size;
+		PIECE = new int[SIZE];
+		ORIENT = new int[SIZE];
+		SLOT = new int[SIZE];
+		WIDTH = new int[SIZE];
+		HEIGHT = new int[SIZE];
+		BOTTOM = new int[SIZE * MAX_WIDTH];
+		TOP = new int[SIZE * MAX_WIDTH];
+		ROW_MASK = new int[SIZE * MAX_HEIGHT];
+		COLUMN_MASK = new int[SIZE * MAX_WIDTH];
+
+		int[][] pWidth = State.getpWidth();
+		int[][] pHeight = State.getpHeight();
+		int[][][] pBottom = State.getpBottom();
+		int[][][] pTop = State.getpTop();
+		for (int p = 0; p < State.N_PIECES; p++) {
+			for (int i = 0; i < COUNT[p]; i++) {
+				int id = FIRST[p] + i;
+				int orient = State.legalMoves[p][i][State.ORIENT];
+				int slot = State.legalMoves[p][i][State.SLOT];
+				PIECE[id] = p;
+				ORIENT[id] = orient;
+				SLOT[id] = slot;
+				WIDTH[id] = pWidth[p][orient];
+				HEIGHT[id] = pHeight[p][orient];
+				ID[(p * MAX_WIDTH + orient) * State.COLS + slot] = id;
+				for (int c = 0; c < WIDTH[id]; c++) {
+					BOTTOM[id * MAX_WIDTH + c] = pBottom[p][orient][c];
+					TOP[id * MAX_WIDTH + c] = pTop[p][orient][c];
+					for (int h = pBottom[p][orient][c]; h < pTop[p][orient][c]; h++) {
+						ROW_MASK[id * MAX_HEIGHT + h] |= 1 << (slot + c);
+						COLUMN_MASK[id * MAX_WIDTH + c] |= 1 << h;
+					}
+				}
+			}
+		}
+	}
+
+	private PlacementTable() {
+	}
+
+	// first placement id of a piece
+	public static int first(int piece) {
+		return FIRST[piece];
+	}
+
+	// number of placements (legal moves) of a piece
+	public static int count(int piece) {
+		return COUNT[piece];
+	}
+
+	// placement id of legal move move (index in State.legalMoves[piece]) of a
+	// piece, throws IllegalArgumentException if there is no such move
+	public static int id(int piece, int move) {
+		if (move < 0 || move >= COUNT[piece])
+			throw new IllegalArgumentException("Illegal move: piece " + piece + " has no move " + move);
+		return FIRST[piece] + move;
+	}
+
+	// placement id of a piece put in a given orientation and slot, throws
+	// IllegalArgumentException if that is not a legal move
+	public static int id(int piece, int orient, int slot) {
+		int id = orient < 0 || orient >= MAX_WIDTH || slot < 0 || slot >= State.COLS ? -1
+				: ID[(piece * MAX_WIDTH + orient) * State.COLS + slot];
+		if (id < 0)
+			throw new IllegalArgumentException(
+					"Illegal move: piece " + piece + " in orientation " + orient + " at slot " + slot);
+		return id;
+	}
+
+	// row of the bottom of the piece once dropped on a skyline
+	public static int landingHeight(int id, int[] top) {
+		return landingHeight(id, top, 0);
+	}
+
+	// same, for a skyline stored in top[offset .. offset+COLS-1]
+	public static int landingHeight(int id, int[] top, int offset) {
+		int o = id * MAX_WIDTH;
+		int col = offset + SLOT[id];
+		int height = top[col] - BOTTOM[o];
+		for (int c = 1; c < WIDTH[id]; c++) {
+			int h = top[col + c] - BOTTOM[o + c];
+			if (h > height)
+				height = h;
+		}
+		return height;
+	}
+}
@@ -1,293 +1,16 @@
-import java.util.Arrays;
-
-public class PlayerSkeleton {
-	private static final double WEIGHTS[] = { -2.76744786096722, 7.109539166236581, -2.2476784673295653,
+public class PlayerSkeleton implements Policy {
+	static final double WEIGHTS[] = { -2.76744786096722, 7.109539166236581, -2.2476784673295653,
 			-7.486601242281183, -10.0, -2.76442687047878 };
 	private final double weightVector[];
-
-	public class StateWrapper {
-		// private final State mutableState;
-		private int[][] field;
-		private int[] top;
-		private int rowsCleared = 0;
-		private final int nextPiece;
-
-		// Public constructor, for the first call, copying the outer state
-		public StateWrapper(State state) {
-			field = Arrays.stream(state.getField()).map(j -> j.clone()).toArray(int[][]::new);
-			top = Arrays.copyOf(state.getTop(), State.COLS);
-			nextPiece = state.getNextPiece();
-		}
-
-		public boolean makeMove(int move) {
-			return makeMove(State.legalMoves[nextPiece][move]);
-		}
-
-		// make a move based on an array of orient and slot
-		public boolean makeMove(int[] move) {
-			return makeMove(move[State.ORIENT], move[State.SLOT]);
-		}
-
-		// returns false if you lose - true otherwise and make the move in the
-		// "fake" state
-		public boolean makeMove(int orient, int slot) {
-			// height if the first column makes contact
-			int height = top[slot] - State.getpBottom()[nextPiece][orient][0];
-			// for each column beyond the first in the piece
-			for (int c = 1; c < State.getpWidth()[nextPiece][orient]; c++) {
-				height = Math.max(height, top[slot + c] - State.getpBottom()[nextPiece][orient][c]);
-			}
-
-			// check if game ended
-			if (height + State.getpHeight()[nextPiece][orient] >= State.ROWS + rowsCleared) {
-				return false;
-			}
-
-			// for each column in the piece - fill in the appropriate blocks
-			for (int i = 0; i < State.getpWidth()[nextPiece][orient]; i++) {
-
-				// from bottom to top of brick
-				for (int h = height + State.getpBottom()[nextPiece][orient][i]; h < height
-						+ State.getpTop()[nextPiece][orient][i]; h++) {
-					field[h][i + slot] = 1;
-				}
-			}
-
-			// adjust top
-			for (int c = 0; c < State.getpWidth()[nextPiece][orient]; c++) {
-				top[slot + c] = height + State.getpTop()[nextPiece][orient][c];
-			}
-
-			// check for full rows - starting at the top
-			for (int r = height + State.getpHeight()[nextPiece][orient] - 1; r >= height; r--) {
-				// check all columns in the row
-				boolean full = true;
-				for (int c = 0; c < State.COLS; c++) {
-					if (field[r][c] == 0) {
-						full = false;
-						break;
-					}
-				}
-				// if the row was full - remove it and slide above stuff down
-				if (full)
-					rowsCleared++;
-
-			}
-			return true;
-		}
-
-		// Return the Field array
-		public int[][] getField() {
-			return field;
-		}
-
-		// Return the Top array
-		public int[] getTop() {
-			return top;
-		}
-
-		// Return the number of cleared row (to use after makeMove !)
-		public int getRowsCleared() {
-			return rowsCleared;
-		}
-
-		public int getNextPiece() {
-			return nextPiece;
-		}
-
-		// For simulating multi-ply, inner call (use getnNextState)
-		private StateWrapper(StateWrapper state, int piece) {
-			field = Arrays.stream(state.getField()).map(int[]::clone).toArray(int[][]::new);
-			top = Arrays.copyOf(state.getTop(), State.COLS);
-			// Remove previous full line
-			// check for full rows - starting at the top
-			rowsCleared = state.rowsCleared;
-			nextPiece = piece;
-		}
-
-		// Create another wrapper to simulate the next ply
-		public StateWrapper generateNextState(int piece) {
-			return new StateWrapper(this, piece);
-		}
-
-		// return the set of legal moves for the next piece
-		public int[][] legalMoves() {
-			return State.legalMoves[nextPiece];
-		}
-	}
-
-	public static class Feature {
-		private final StateWrapper current;
-		private final int move[];
-		public static final int COLS = 10;
-		public static final int ROWS = 21;
-
-		public Feature(StateWrapper wrap, int[] move) {
-			this.current = wrap;
-			this.move = move;
-		}
-
-		// returns aggregate height of the grid
-		public int aggregateHeight() {
-			int aggregateHeight = 0;
-			int[] top = current.getTop();
-			for (int i = 0; i < top.length; i++)
-				aggregateHeight += top[i];
-			return aggregateHeight;
-		}
-
-		// returns number of holes (unfilled places) beneath top of grid
-		public int numberHoles() {
-			int holesCounter = 0;
-			int[][] field = current.getField();
-			int[] top = current.getTop();
-			for (int i = 0; i < top.length; i++) {
-				for (int j = 0; j < top[i]; j++) {
-					if (field[j][i] == 0)
-						holesCounter++;
-				}
-			}
-			return holesCounter;
-		}
-
-		public double landingHeight() {
-			int[][] pHeight = State.getpHeight();
-			int[] top = current.getTop();
-			double landingHeight = top[move[State.SLOT]]
-					+ ((double) pHeight[current.getNextPiece()][move[State.ORIENT]] - 1) / 2.0;
-			return landingHeight;
-		}
-
-		public int totalRowTransitions() {
-			int row_transitions = 0;
-			int[][] field = current.getField();
-			int last_cell = 1;
-			for (int i = 0; i < ROWS; i++) {
-				for (int j = 0; j < COLS; j++) {
-					int current_cell = field[i][j];
-					if (current_cell != 0)
-						current_cell = 1;
-					if (current_cell != last_cell)
-						row_transitions++;
-					last_cell = current_cell;
-				}
-				last_cell = 1;
-			}
-			return row_transitions;
-		}
-
-		public int totalWells() {
-			int wells = 0;
-			int[][] field = current.getField();
-			// Wells in inner columns
-			for (int i = 1; i < COLS - 1; i++) {
-				for (int j = ROWS - 1; j >= 0; j--) {
-					if ((field[j][i] == 0) && (field[j][i - 1] != 0) && (field[j][i + 1] != 0)) {
-						wells++;
-						for (int k = j - 1; k >= 0; k--)
-							if (field[k][i] == 0)
-								wells++;
-							else
-								break;
-					}
-					if (field[j][i] != 0)
-						break;
-				}
-			}
-
-			// Wells in left-most column
-			for (int j = ROWS - 1; j >= 0; j--) {
-				if ((field[j][0] == 0) && (field[j][1] != 0)) {
-					wells++;
-					for (int k = j - 1; k >= 0; k--)
-						if (field[k][0] == 0)
-							wells++;
-						else
-							break;
-				}
-				if (field[j][0] != 0)
-					break;
-			}
-
-			// Wells in right-most column
-			for (int j = ROWS - 1; j >= 0; j--) {
-				if ((field[j][COLS - 1] == 0) && (field[j][COLS - 2] != 0)) {
-					wells++;
-					for (int k = j - 1; k >= 0; k--)
-						if (field[k][COLS - 1] == 0)
-							wells++;
-						else
-							break;
-				}
-				if (field[j][COLS - 1] != 0)
-					break;
-			}
-			return wells;
-
-		}
-
-		public int totalColumnTransitions() {
-			int col_transitions = 0;
-			int[][] field = current.getField();
-			int last_cell = 1;
-			for (int i = 0; i < COLS; i++) {
-				for (int j = 0; j < ROWS; j++) {
-					int current_cell = field[j][i];
-					if (current_cell != 0)
-						current_cell = 1;
-					if (current_cell != last_cell)
-						col_transitions++;
-					last_cell = current_cell;
-				}
-				last_cell = 1;
-			}
-			return col_transitions;
-		}
-
-		// returns number of rows cleared so far
-		public int completeLines() {
-			return current.getRowsCleared();
-		}
-
-		// returns bumpiness of grid aka sum of absolute difference between
-		// adjacent
-		// column heights
-		public int bumpiness() {
-			int bumpiness = 0;
-			int[] top = current.getTop();
-			for (int i = 0; i < top.length - 1; i++) {
-				bumpiness += Math.abs(top[i + 1] - top[i]);
-			}
-			return bumpiness;
-		}
-
-		// returns column with max height in current state
-		public int maxHeight() {
-			int max_col = 0, max_height = 0;
-			int[] top = current.getTop();
-			for (int i = 0; i < top.length; i++) {
-				if (max_height < top[i]) {
-					max_height = top[i];
-					max_col = i;
-				}
-			}
-			return max_col;
-		}
-
-		// returns column with min height in current state
-		public int minHeight() {
-			int min_col = 0, min_height = State.ROWS;
-			int[] top = current.getTop();
-			for (int i = 0; i < top.length; i++) {
-				if (min_height > top[i]) {
-					min_height = top[i];
-					min_col = i;
-				}
-			}
-			return min_col;
-		}
-
-	}
+	// scores moves with weightVector over the features of FeatureSet.DEFAULT
+	private final FeatureSet.Evaluator evaluator;
+	// search state reused across turns, moves are made and undone in place
+	private final StateWrapper searchState = new StateWrapper();
+	// features of the candidate being scored
+	private final double[] features = new double[Feature.NB_FEATURES];
+	// features of all the candidates when they are scored in one batch, null
+	// to score them one by one
+	private FeatureMatrix matrix;
 
 	/**
 	 * Default constructor, construct the Player Skeleton with the default
@@ -295,6 +18,15 @@ public class PlayerSkeleton {
 	 */
 	public PlayerSkeleton() {
 		weightVector = WEIGHTS;
+		evaluator = FeatureSet.DEFAULT.evaluator(weightVector);
+	}
+
+	// choose whether the candidates are scored in one batch (FeatureMatrix)
+	// instead of one by one with pruning, off by default: with the six
+	// default features pruning skips more than the batch saves (see
+	// ScoringBenchmark)
+	public void setBatchScoring(boolean batchScoring) {
+		matrix = batchScoring ? new FeatureMatrix(FeatureSet.DEFAULT) : null;
 	}
 
 	/**
@@ -310,38 +42,77 @@ public class PlayerSkeleton {
 	public int pickMove(State s, int[][] legalMoves) {
 		int bestIndex = 0;
 		double bestScore = Double.NEGATIVE_INFINITY;
-		for (int i = 0; i < legalMoves.length; ++i) {
-			StateWrapper wrap = new StateWrapper(s);
+		searchState.reset(s);
+		StateWrapper wrap = searchState;
+		if (matrix != null)
+			return pickMove(wrap, matrix);
+		// one move per distinct placement
+		for (int i : PlacementIndex.moves(wrap.getNextPiece())) {
+			// skip the moves that cannot beat the best one without making them
+			if (evaluator.bound(wrap, i, features) <= bestScore)
+				continue;
 			boolean validMove = wrap.makeMove(i);
 			if (validMove) {
-				Feature feature = new Feature(wrap, legalMoves[i]);
-				double landingHeight = feature.landingHeight();
-				int completed = feature.completeLines();
-				int row_transitions = feature.totalRowTransitions();
-				int col_transitions = feature.totalColumnTransitions();
-				int holes = feature.numberHoles();
-				int well_sums = feature.totalWells();
-
-				double score = weightVector[0] * landingHeight + weightVector[1] * completed
-						+ weightVector[2] * row_transitions + weightVector[3] * col_transitions
-						+ weightVector[4] * holes + weightVector[5] * well_sums;
+				double score = evaluator.evaluate(wrap, features);
 				if (score > bestScore) {
 					bestIndex = i;
 					bestScore = score;
 				}
+				wrap.undoMove();
 			}
 		}
 		return bestIndex;
 	}
 
+	// pickMove scoring all the candidates together
+	private int pickMove(StateWrapper wrap, FeatureMatrix matrix) {
+		matrix.clear();
+		for (int i : PlacementIndex.moves(wrap.getNextPiece())) {
+			if (wrap.makeMove(i)) {
+				matrix.add(wrap, i, features);
+				wrap.undoMove();
+			}
+		}
+		int best = evaluator.best(matrix);
+		return best < 0 ? 0 : matrix.move(best);
+	}
+
+	/**
+	 * Play a game with visualization
+	 * 
+	 * @param args
+	 *            the player: "expectimax" for ExpectimaxPlayer, "beam" for
+	 *            BeamSearchPlayer, "rollout" for RolloutPlayer, "ponder" for a
+	 *            3-ply ExpectimaxPlayer pondering while the move is shown,
+	 *            PlayerSkeleton otherwise
+	 */
 	public static void main(String[] args) {
 		State s = new State();
-		new TFrame(s);
-		PlayerSkeleton p = new PlayerSkeleton();
+		TFrame frame = new TFrame(s);
+		Policy p;
+		if (args.length > 0 && args[0].equals("expectimax")) {
+			ExpectimaxPlayer expectimax = new ExpectimaxPlayer();
+			expectimax.setParallel(true);
+			p = expectimax;
+		} else if (args.length > 0 && args[0].equals("beam")) {
+			p = new BeamSearchPlayer();
+		} else if (args.length > 0 && args[0].equals("ponder")) {
+			ExpectimaxPlayer expectimax = new ExpectimaxPlayer();
+			expectimax.setParallel(true);
+			expectimax.setPlies(3);
+			expectimax.setTranspositionTable(new TranspositionTable(1 << 20, true));
+			p = new Ponderer(expectimax);
+		} else if (args.length > 0 && args[0].equals("rollout")) {
+			p = new RolloutPlayer();
+		} else {
+			p = new PlayerSkeleton();
+		}
 		while (!s.hasLost()) {
 			s.makeMove(p.pickMove(s, s.legalMoves()));
-			s.draw();
-			s.drawNext(0, 0);
+			if (p instanceof Ponderer)
+				((Ponderer) p).ponder(s);
+			frame.renderer.draw();
+			frame.renderer.drawNext(0, 0);
 			try {
 				Thread.sleep(300);
 			} catch (InterruptedException e) {
@@ -349,6 +120,18 @@ public class PlayerSkeleton {
 			}
 		}
 		System.out.println("You have completed " + s.getRowsCleared() + " rows.");
+		if (p instanceof ExpectimaxPlayer)
+			System.out.println("Searched " + Math.round(((ExpectimaxPlayer) p).getNodesPerSecond()) + " nodes/s");
+		if (p instanceof BeamSearchPlayer)
+			System.out.println("Searched " + ((BeamSearchPlayer) p).getAverageDepth() + " plies per move");
+		if (p instanceof Ponderer) {
+			Ponderer ponderer = (Ponderer) p;
+			ponderer.shutdown();
+			System.out.println("Pondered " + ponderer.getHits() + " moves, waited for " + ponderer.getWaits()
+					+ ", searched " + ponderer.getMisses());
+		}
+		if (p instanceof RolloutPlayer)
+			System.out.println("Simulated " + Math.round(((RolloutPlayer) p).getMovesPerSecond()) + " moves/s");
 	}
 
 }
@@ -404,7 +187,7 @@ public class PlayerSkeletonTrain {
 			StateWrapper wrap = new StateWrapper(s);
 			boolean validMove = wrap.makeMove(i);
 			if (validMove) {
-				Feature feature = new Feature(wrap,legalMoves[i]);
+				Feature feature = new Feature(wrap);
 				int aggregateHeight = feature.aggregateHeight();
 				double landingHeight = feature.landingHeight();
 				int completed = feature.completeLines();
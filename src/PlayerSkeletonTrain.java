@@ -1,17 +1,45 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
-public class PlayerSkeletonTrain {
+public class PlayerSkeletonTrain implements Policy {
 	
+	// how the games of play() are simulated: one State per game, or a
+	// GameBatch per thread stepping all of its games together
+	public enum Backend {
+		STATE, GAME_BATCH
+	}
+
 	private static final double WEIGHTS[] = {-2.76744786096722, 7.109539166236581, -2.2476784673295653, -7.486601242281183, -10.0, -2.76442687047878};
 
 	private final double weightVector[];
+	// scores moves with weightVector over the features of its set
+	private final FeatureSet.Evaluator evaluator;
+	private final FeatureSet features;
 	private final int nbGames;
 	private final int move_cutoff_num;
-	private final int numberOfProcessors;
-	private final int gamePerCore;
-	private final int gameForLastCore;
-	private volatile double score;
+	// game i is played with the pieces of RandomPieceSource(seed + i)
+	private final long seed;
+	private Backend backend = Backend.STATE;
+	// whether pickMove reads the board features from the feature cache of
+	// the set (see FeatureCache)
+	private boolean featureCache = false;
+	// whether pickMove skips the moves whose bound cannot beat the best move
+	// found so far (see FeatureSet.Evaluator.bound)
+	private boolean pruning;
+	// whether pickMove scores all the candidates in one batch (see
+	// FeatureMatrix) instead of one by one
+	private boolean batchScoring = false;
+	// 2-ply search with the same weights, used instead of the 1-ply search
+	// when lookahead is on, built the first time it is
+	private ExpectimaxPlayer expectimax;
+	private boolean lookahead = false;
+	// total rows cleared by the games of the last play()
+	private double score;
+	// search state of each playing thread, moves are made and undone in
+	// place; shared by all the players, since a thread plays with one at a
+	// time and the GamePool threads outlive the players
+	private static final ThreadLocal<StateWrapper> searchState = ThreadLocal.withInitial(StateWrapper::new);
+	// features of the candidate being scored, per playing thread
+	private static final ThreadLocal<double[]> featureBuffer = ThreadLocal.withInitial(() -> new double[Feature.NB_FEATURES]);
 
 	/**
 	 * Default constructor, construct the Player Skeleton with the default
@@ -22,20 +50,109 @@ public class PlayerSkeletonTrain {
 	}
 
 	/**
-	 * Augmented constructor, takes the weights (size 4) and the number of game
-	 * to play
+	 * Augmented constructor, takes the weights (one per feature of
+	 * FeatureSet.DEFAULT) and the number of game to play
 	 * 
 	 * @param weights
 	 * @param nbGames
 	 */
 	public PlayerSkeletonTrain(double[] weights, int nbGames,int move_cutoff_num) {
+		this(FeatureSet.DEFAULT, weights, nbGames, move_cutoff_num);
+	}
+
+	/**
+	 * Constructor for weights over any set of features
+	 * 
+	 * @param features
+	 *            the features weighted
+	 * @param weights
+	 *            a weight per feature of the set, in its order
+	 * @param nbGames
+	 * @param move_cutoff_num
+	 */
+	public PlayerSkeletonTrain(FeatureSet features, double[] weights, int nbGames,int move_cutoff_num) {
+		this(features, weights, nbGames, move_cutoff_num, ThreadLocalRandom.current().nextLong());
+	}
+
+	/**
+	 * Seeded constructor, the same seed replays exactly the same games
+	 * 
+	 * @param weights
+	 * @param nbGames
+	 * @param move_cutoff_num
+	 * @param seed
+	 *            seed of the piece sequences, see getSeed()
+	 */
+	public PlayerSkeletonTrain(double[] weights, int nbGames,int move_cutoff_num, long seed) {
+		this(FeatureSet.DEFAULT, weights, nbGames, move_cutoff_num, seed);
+	}
+
+	/**
+	 * Seeded constructor for weights over any set of features
+	 * 
+	 * @param features
+	 *            the features weighted
+	 * @param weights
+	 *            a weight per feature of the set, in its order
+	 * @param nbGames
+	 * @param move_cutoff_num
+	 * @param seed
+	 *            seed of the piece sequences, see getSeed()
+	 */
+	public PlayerSkeletonTrain(FeatureSet features, double[] weights, int nbGames,int move_cutoff_num, long seed) {
 		weightVector = weights;
+		evaluator = features.evaluator(weights);
+		pruning = evaluator.prunes();
+		this.features = features;
+		this.seed = seed;
 		this.nbGames = nbGames;
 		this.move_cutoff_num = move_cutoff_num;
-		numberOfProcessors = Runtime.getRuntime().availableProcessors();
-		// System.out.println("nb Processor " + numberOfProcessors);
-		gamePerCore = nbGames / numberOfProcessors;
-		gameForLastCore = nbGames - (numberOfProcessors - 1) * gamePerCore;
+	}
+
+	// choose how play() simulates the games, STATE by default
+	public void setBackend(Backend backend) {
+		this.backend = backend;
+	}
+
+	// choose whether the board features are cached, off by default: the
+	// cache pays off only when the same boards keep coming back, check
+	// FeatureCache.statistics() to see if they do
+	public void setFeatureCache(boolean featureCache) {
+		this.featureCache = featureCache;
+	}
+
+	// choose whether moves are pruned, on by default when the weights let
+	// the evaluator bound the moves (FeatureSet.Evaluator.prunes()): each
+	// move then costs a bound, and the ones skipped save a makeMove and an
+	// evaluation
+	public void setPruning(boolean pruning) {
+		this.pruning = pruning;
+	}
+
+	// choose whether the candidates are scored in one batch (FeatureMatrix),
+	// off by default: the batch neither prunes nor reads the feature cache,
+	// so it only wins when those skip little work
+	public void setBatchScoring(boolean batchScoring) {
+		this.batchScoring = batchScoring;
+	}
+
+	// choose whether moves are picked by a 2-ply search (ExpectimaxPlayer)
+	// instead of 1-ply, off by default
+	public void setLookahead(boolean lookahead) {
+		if (lookahead && expectimax == null)
+			expectimax = new ExpectimaxPlayer(features, weightVector);
+		this.lookahead = lookahead;
+	}
+
+	// the 2-ply search used when lookahead is on, for its statistics, null
+	// if it never was
+	public ExpectimaxPlayer getExpectimax() {
+		return expectimax;
+	}
+
+	// seed of the games played, to replay them with the seeded constructor
+	public long getSeed() {
+		return seed;
 	}
 	public void debug(int landingHeight,int completed,int row_transitions,int col_transitions,int holes,int well_sums) {
 		System.out.print("Landing Height: "+landingHeight+"   ");
@@ -58,29 +175,52 @@ public class PlayerSkeletonTrain {
 	 * @return The index of the best move to do based on the heuristic
 	 */
 	public int pickMove(State s, int[][] legalMoves) {
+		StateWrapper wrap = searchState.get();
+		wrap.reset(s);
+		return pickMove(wrap);
+	}
+
+	/**
+	 * Same as pickMove(State, int[][]) for a board already loaded in a search
+	 * state, which is left as it was
+	 * 
+	 * @param wrap
+	 *            The search state holding the board and the piece to play
+	 * @return The index of the best move in wrap.legalMoves()
+	 */
+	int pickMove(StateWrapper wrap) {
+		if (lookahead)
+			return expectimax.pickMove(wrap);
+		double[] features = featureBuffer.get();
+		if (batchScoring) {
+			FeatureMatrix matrix = this.features.matrix();
+			matrix.clear();
+			for (int i : PlacementIndex.moves(wrap.getNextPiece())) {
+				if (wrap.makeMove(i)) {
+					matrix.add(wrap, i, features);
+					wrap.undoMove();
+				}
+			}
+			int best = evaluator.best(matrix);
+			return best < 0 ? 0 : matrix.move(best);
+		}
+		FeatureCache cache = featureCache ? this.features.cache() : null;
 		int bestIndex = 0;
 		double bestScore = Double.NEGATIVE_INFINITY;
-		for (int i = 0; i < legalMoves.length; ++i) {
-			StateWrapper wrap = new StateWrapper(s);
+		// one move per distinct placement
+		for (int i : PlacementIndex.moves(wrap.getNextPiece())) {
+			// skip the moves that cannot beat the best one without making them
+			if (pruning && evaluator.bound(wrap, i, features) <= bestScore)
+				continue;
 			boolean validMove = wrap.makeMove(i);
 			if (validMove) {
-				Feature feature = new Feature(wrap,legalMoves[i]);
-				int aggregateHeight = feature.aggregateHeight();
-				double landingHeight = feature.landingHeight();
-				int completed = feature.completeLines();
-				int row_transitions = feature.totalRowTransitions();
-				int col_transitions = feature.totalColumnTransitions();
-				int holes = feature.numberHoles();
-				int bumpiness = feature.bumpiness();
-				int well_sums = feature.totalWells();
-				
-				double score = weightVector[0] * landingHeight + weightVector[1] * completed
-						+ weightVector[2] * row_transitions + weightVector[3] * col_transitions + weightVector[4]*holes + weightVector[5]*well_sums;
-						//+ weightVector[6] * aggregateHeight + weightVector[7] * bumpiness;
+				double score = cache == null ? evaluator.evaluate(wrap, features)
+						: evaluator.evaluate(wrap, features, cache);
 				if (score > bestScore) {
 					bestIndex = i;
 					bestScore = score;
 				}
+				wrap.undoMove();
 			}
 		}
 		return bestIndex;
@@ -90,36 +230,24 @@ public class PlayerSkeletonTrain {
 	 * Play the game for a known number of games, for the weights given during
 	 * the construction
 	 * 
-	 * Note: It uses parrallelism if the number of game to play is bigger than
-	 * MIN_NBGAMES
+	 * Note: The games are played in parallel on the GamePool, one task per
+	 * game (per thread with the GAME_BATCH backend), and their scores summed
+	 * in game order
 	 * 
 	 * @return the average score over all the games
 	 */
 	public double play() {
-		//double score = playHelper(nbGames);
-		if (nbGames <= numberOfProcessors) {
-			score = playHelper(nbGames);
-		} else {
-			List<Thread> threads = new ArrayList<>(numberOfProcessors);
-			for (int i = 0; i < numberOfProcessors; ++i) {
-				Thread t = i == numberOfProcessors - 1 ? new Thread(() -> {
-					long local = playHelper(gameForLastCore);
-					score += local;
-				}) : new Thread(() -> {
-					long local = playHelper(gamePerCore);
-					score += local;
-				});
-				t.start();
-				threads.add(t);
-			}
-			for (int i = 0; i < numberOfProcessors; ++i) {
-				try {
-					threads.get(i).join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-		}
+		// games first(t) .. first(t+1)-1 in task t
+		int tasks = backend == Backend.GAME_BATCH ? Math.min(nbGames, GamePool.THREADS) : nbGames;
+		long[] scores = GamePool.play(tasks, t -> {
+			int firstGame = (int) ((long) t * nbGames / tasks);
+			int lastGame = (int) ((long) (t + 1) * nbGames / tasks);
+			return playHelper(firstGame, lastGame - firstGame);
+		});
+		long total = 0;
+		for (long local : scores)
+			total += local;
+		score = total;
 		// System.out.println(score);
 		return score / nbGames;
 	}
@@ -127,14 +255,27 @@ public class PlayerSkeletonTrain {
 	/**
 	 * Helper method that actually play a given number of games
 	 * 
+	 * @param firstGame
+	 *            the number of the first game to play, to seed its pieces
 	 * @param nbGamesToPlay
 	 *            the number of games to play
 	 * @return the total score
 	 */
-	private long playHelper(int nbGamesToPlay) {
+	private long playHelper(int firstGame, int nbGamesToPlay) {
+		try {
+			return playGames(firstGame, nbGamesToPlay);
+		} finally {
+			if (featureCache)
+				features.cache().publish();
+		}
+	}
+
+	private long playGames(int firstGame, int nbGamesToPlay) {
+		if (backend == Backend.GAME_BATCH)
+			return new GameBatch(this, seed, firstGame, nbGamesToPlay, move_cutoff_num).play();
 		long sum = 0;
 		for (int i = 0; i < nbGamesToPlay; ++i) {
-			State s = new State();
+			State s = new State(new RandomPieceSource(seed + firstGame + i));
 			int moves = 0;
 			while (!s.hasLost() && (moves < move_cutoff_num)) {
 				s.makeMove(pickMove(s, s.legalMoves()));
@@ -175,7 +316,7 @@ public class PlayerSkeletonTrain {
 			  		System.out.println("Current piece(StateWrapper): "+wrap.getNextPiece());
 			  		System.out.println("Move: "+move[s.SLOT]+"  "+move[s.ORIENT]);
 			  		
-			  		Feature feature = new Feature(wrap,move);
+			  		Feature feature = new Feature(wrap);
 			  		int landingHeight = feature.landingHeight();
 					int completed = feature.completeLines();
 					int row_transitions = feature.totalRowTransitions();
@@ -0,0 +1,15 @@
+/**
+ * A player: picks the move to make in a state. PlayerSkeleton is the 1-ply
+ * player, ExpectimaxPlayer looks one piece further; PlayerSkeleton.main plays
+ * with the one named on the command line.
+ */
+public interface Policy {
+	/**
+	 * @param s
+	 *            The current state
+	 * @param legalMoves
+	 *            The set of legal moves in the current state
+	 * @return The index of the move to do
+	 */
+	int pickMove(State s, int[][] legalMoves);
+}
@@ -0,0 +1,153 @@
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pondering for an ExpectimaxPlayer: while a game is being shown (the sleep
+ * of PlayerSkeleton.main), a background thread searches the next move in
+ * advance, so that a search too deep to run without a visible stall can be
+ * played live.
+ *
+ * ponder() is called right after a move is made and queues one search per
+ * piece that can come next, the piece State already drew first, then the six
+ * others. pickMove() on the board pondered takes the move of its piece from
+ * there: it is a lookup when the search is done, and otherwise waits for a
+ * search that started while the board was shown. Any other board is searched
+ * on the spot, once the search running in the background, if any, is over,
+ * so that the player is never searched by two threads at once. The move is
+ * the one the player would pick without pondering.
+ */
+public class Ponderer implements Policy {
+	private final ExpectimaxPlayer player;
+	// searches in the background, one at a time
+	private final ExecutorService thread = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "ponder");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// board pondered, and its move for each piece
+	private int[] rows;
+	private final Future<?>[] replies = new Future<?>[State.N_PIECES];
+
+	// moves found pondered, done or still searching, and searched on the spot
+	private long hits;
+	private long waits;
+	private long misses;
+
+	/**
+	 * @param player
+	 *            the search pondered, used by one thread at a time
+	 */
+	public Ponderer(ExpectimaxPlayer player) {
+		this.player = player;
+	}
+
+	/**
+	 * Start searching the moves of the board of a state in the background,
+	 * dropping the searches of the board pondered before that have not started
+	 *
+	 * @param s
+	 *            The state whose next move to search
+	 */
+	public void ponder(State s) {
+		for (Future<?> reply : replies) {
+			if (reply != null)
+				reply.cancel(false);
+		}
+		if (s.hasLost()) {
+			rows = null;
+			return;
+		}
+		StateWrapper board = new StateWrapper(s);
+		rows = board.getRows().clone();
+		int next = s.getNextPiece();
+		for (int k = 0; k < State.N_PIECES; k++) {
+			int piece = (next + k) % State.N_PIECES;
+			replies[piece] = thread.submit(() -> {
+				StateWrapper wrap = new StateWrapper();
+				wrap.reset(board);
+				wrap.setNextPiece(piece);
+				return player.pickMove(wrap);
+			});
+		}
+	}
+
+	@Override
+	public int pickMove(State s, int[][] legalMoves) {
+		Future<?> reply = rows != null && Arrays.equals(rows, s.getRows()) ? replies[s.getNextPiece()] : null;
+		if (reply != null && !reply.isCancelled()) {
+			if (reply.isDone())
+				hits++;
+			else
+				waits++;
+			return (Integer) get(reply);
+		}
+		misses++;
+		// the player is searched by one thread at a time: let the search of
+		// another board finish first
+		stop();
+		return player.pickMove(s, legalMoves);
+	}
+
+	// stop the background thread, the player can still be used
+	public void shutdown() {
+		thread.shutdown();
+		stop();
+	}
+
+	// drop the searches that have not started and wait for the running one
+	private void stop() {
+		for (Future<?> reply : replies) {
+			if (reply != null)
+				reply.cancel(false);
+		}
+		rows = null;
+		if (thread.isShutdown()) {
+			try {
+				thread.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the ponder thread", e);
+			}
+		} else {
+			// runs once the thread is free
+			get(thread.submit(() -> {
+			}));
+		}
+	}
+
+	// result of a search, throwing what it threw
+	private static Object get(Future<?> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the ponder thread", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	// moves that were ready when asked for
+	public long getHits() {
+		return hits;
+	}
+
+	// moves that were still being searched when asked for
+	public long getWaits() {
+		return waits;
+	}
+
+	// moves searched on the spot
+	public long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,47 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Uniformly random pieces from a generator owned by the source, so games
+ * played on different threads never share one, and a game built with the same
+ * seed always gets the same pieces.
+ *
+ * The generator is SplitMix64, whose whole state is one long: GameBatch keeps
+ * the states of its games in a long[] and steps them with advance() and
+ * piece(), drawing exactly the pieces a RandomPieceSource with the same seed
+ * would.
+ */
+public class RandomPieceSource implements PieceSource {
+	private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long state;
+
+	// unseeded source, different on every run
+	public RandomPieceSource() {
+		this(ThreadLocalRandom.current().nextLong());
+	}
+
+	public RandomPieceSource(long seed) {
+		state = seed;
+	}
+
+	@Override
+	public int nextPiece() {
+		state = advance(state);
+		return piece(state);
+	}
+
+	// generator state after drawing one piece
+	static long advance(long state) {
+		return state + GAMMA;
+	}
+
+	// piece drawn when the generator reaches a state
+	static int piece(long state) {
+		long z = state;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		z = z ^ (z >>> 31);
+		// top 32 bits scaled to 0 .. N_PIECES-1
+		return (int) (((z >>> 32) * State.N_PIECES) >>> 32);
+	}
+}
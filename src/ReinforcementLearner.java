@@ -4,14 +4,13 @@ public class ReinforcementLearner {
 	private WeightVector[] weight_vectors;
 
 	public static final int WEIGHT_VECTOR_NUM = 500;
-	public static final int WEIGHT_VECTOR_DIMENSIONS = 4;
+	public static final FeatureSet FEATURES = FeatureSet.DEFAULT;
+	public static final int WEIGHT_VECTOR_DIMENSIONS = FEATURES.size();
 
 	public static final int OFFSPRING_NUMBER = 150;
 	public static final int GAMES = 10;
 	public static final int LEARNING_SESSIONS = 100;
 	public static final int MOVE_CUTOFF_NUM = 100000;
-	public static final int NB_PROCESSORS = Runtime.getRuntime().availableProcessors();
-	public static final int VECTOR_PER_CORE = WEIGHT_VECTOR_NUM / NB_PROCESSORS;
 
 
 	public ReinforcementLearner() {
@@ -66,34 +65,20 @@ public class ReinforcementLearner {
 	
 	public void learnHelper(int start, int end) {
 		for(int j=start;  j < end; j++) {
-			PlayerSkeletonTrain player = new PlayerSkeletonTrain(weight_vectors[j].weights,GAMES,MOVE_CUTOFF_NUM);
+			PlayerSkeletonTrain player = new PlayerSkeletonTrain(FEATURES, weight_vectors[j].weights, GAMES,
+					MOVE_CUTOFF_NUM);
 			weight_vectors[j].best_score = player.play();
 		}
 	}
 	
 	public void learn() {
 		for(int i=0; i < LEARNING_SESSIONS; i++) {
-			List<Thread> threads = new ArrayList<>(NB_PROCESSORS);
-			for (int k = 0; k < NB_PROCESSORS; ++k) {
-				final int index = k;
-				Thread t = k == NB_PROCESSORS - 1 ? new Thread(() -> {
-					learnHelper(index*VECTOR_PER_CORE, WEIGHT_VECTOR_NUM);
-				}) : new Thread(() -> {
-					learnHelper(index*VECTOR_PER_CORE, (index + 1) * VECTOR_PER_CORE);
-				});
-				t.start();
-				threads.add(t);
-			}
-			for (int k = 0; k < NB_PROCESSORS; ++k) {
-				try {
-					threads.get(k).join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
+			// one task per weight vector on the GamePool, whose games are
+			// played on the thread of the task
+			GamePool.run(WEIGHT_VECTOR_NUM, j -> learnHelper(j, j + 1));
 			Arrays.sort(weight_vectors);
 			System.out.println("Learning session: "+(i+1)+"   Best Score: "+weight_vectors[0].best_score);
-			System.out.println("Weight Vector : "+weight_vectors[0].weights[0]+" "+weight_vectors[0].weights[1]+" "+weight_vectors[0].weights[2]+" "+weight_vectors[0].weights[3]);
+			System.out.println("Weight Vector : "+Arrays.toString(weight_vectors[0].weights));
 			breeder();	// Breeds current population to produce fitter weight vectors
 		}
 		//System.out.println("Optimal parameters: "+weight_vectors.get(0).weights[0]+" "+weight_vectors.get(0).weights[1]+" "+weight_vectors.get(0).weights[2]+" "+weight_vectors.get(0).weights[3]+"		Best Score: "+weight_vectors.get(0).best_score);
@@ -109,7 +94,6 @@ public class ReinforcementLearner {
 		double best_score;
 
 		public WeightVector(double[] weights) {
-			this.weights = new double[4];
 			this.weights = weights;
 			best_score = 0;
 		}
@@ -0,0 +1,215 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monte Carlo player: each of the best candidate moves (by the linear
+ * evaluation of PlayerSkeleton) is followed by a few short games on random
+ * pieces, played by the 1-ply policy, and the candidate of best average
+ * outcome is picked. The outcome of a rollout is the sum of the scores of its
+ * moves, the candidate included, or LOSS if it loses: the rows cleared along
+ * the way count, and so does every board it goes through, not only the last.
+ * Each move is scored as the 1-ply policy scores it in a game, on the rows it
+ * clears itself, so a line counts once whatever the move clearing it.
+ * Ties go to the candidate of best 1-ply score.
+ *
+ * Rollout k of every candidate is played on the same pieces, so candidates
+ * are compared on the same futures, and the move picked does not depend on
+ * how the rollouts are scheduled. The rollouts of all candidates are split
+ * across the cores with SearchPool, each one a task; each thread plays them
+ * on search states of its own, allocated once, and draws its pieces from a
+ * SplitMix64 state of its own (see RandomPieceSource).
+ */
+public class RolloutPlayer implements Policy {
+	// outcome of a rollout that loses before its last move
+	private static final double LOSS = -1e6;
+
+	private final FeatureSet.Evaluator evaluator;
+	// candidates rolled out, rollouts per candidate, and moves per rollout
+	private final int width;
+	private final int rollouts;
+	private final int horizon;
+	private final long seed;
+	private boolean parallel = true;
+	// moves picked so far, each one seeding its rollouts differently
+	private long turn;
+
+	// search states and buffers of each thread, shared by all the players
+	// since a thread plays rollouts for one at a time, and the SearchPool and
+	// GamePool threads outlive the players
+	private static final ThreadLocal<Rollout> ROLLOUT = ThreadLocal.withInitial(Rollout::new);
+
+	// moves played in rollouts, and time spent picking moves
+	private final LongAdder moves = new LongAdder();
+	private final LongAdder nanos = new LongAdder();
+
+	private static final class Rollout {
+		// the board to move on, and the board of a rollout
+		final StateWrapper root = new StateWrapper();
+		final StateWrapper game = new StateWrapper();
+		final double[] features = new double[Feature.NB_FEATURES];
+		// candidates by decreasing 1-ply score
+		final int[] candidates = new int[PlacementIndex.MAX_MOVES];
+		final double[] scores = new double[PlacementIndex.MAX_MOVES];
+		// state of the piece generator
+		long pieces;
+		// score of the last move of the 1-ply policy
+		double score;
+	}
+
+	/**
+	 * Player with the weights of PlayerSkeleton rolling out the 8 best moves 8
+	 * times, 10 moves deep
+	 */
+	public RolloutPlayer() {
+		this(FeatureSet.DEFAULT, PlayerSkeleton.WEIGHTS, 8, 8, 10, ThreadLocalRandom.current().nextLong());
+	}
+
+	/**
+	 * @param features
+	 *            the features weighted
+	 * @param weights
+	 *            a weight per feature of the set, in its order
+	 * @param width
+	 *            number of candidates rolled out, the best by 1-ply score
+	 * @param rollouts
+	 *            number of rollouts per candidate
+	 * @param horizon
+	 *            number of moves played by each rollout
+	 * @param seed
+	 *            seed of the pieces of the rollouts, the same seed picks the
+	 *            same moves
+	 */
+	public RolloutPlayer(FeatureSet features, double[] weights, int width, int rollouts, int horizon, long seed) {
+		evaluator = features.evaluator(weights);
+		this.width = Math.min(width, PlacementIndex.MAX_MOVES);
+		this.rollouts = rollouts;
+		this.horizon = horizon;
+		this.seed = seed;
+	}
+
+	// split the rollouts across the cores with SearchPool, on by default: a
+	// move plays width * rollouts * horizon 1-ply searches, far more than the
+	// tasks cost
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	@Override
+	public int pickMove(State s, int[][] legalMoves) {
+		long start = System.nanoTime();
+		Rollout root = ROLLOUT.get();
+		StateWrapper wrap = root.root;
+		wrap.reset(s);
+		int[] candidates = root.candidates;
+		double[] scores = root.scores;
+
+		// the best candidates by 1-ply score, the first one first among equal
+		// scores
+		int n = 0;
+		for (int i : PlacementIndex.moves(wrap.getNextPiece())) {
+			if (n == width && evaluator.bound(wrap, i, root.features) <= scores[n - 1])
+				continue;
+			if (wrap.makeMove(i)) {
+				double score = evaluator.evaluate(wrap, root.features);
+				wrap.undoMove();
+				if (n == width && score <= scores[n - 1])
+					continue;
+				int k = n < width ? n++ : n - 1;
+				for (; k > 0 && scores[k - 1] < score; k--) {
+					candidates[k] = candidates[k - 1];
+					scores[k] = scores[k - 1];
+				}
+				candidates[k] = i;
+				scores[k] = score;
+			}
+		}
+		if (n < 2) {
+			nanos.add(System.nanoTime() - start);
+			return n == 0 ? 0 : candidates[0];
+		}
+
+		long first = seed + turn++ * rollouts;
+		// outcome of rollout k of candidate c in outcomes[c * rollouts + k]
+		double[] outcomes = new double[n * rollouts];
+		if (parallel && SearchPool.available()) {
+			SearchPool.forEach(n * rollouts,
+					t -> outcomes[t] = outcome(wrap, candidates[t / rollouts], scores[t / rollouts], first + t % rollouts));
+		} else {
+			for (int t = 0; t < n * rollouts; t++)
+				outcomes[t] = outcome(wrap, candidates[t / rollouts], scores[t / rollouts], first + t % rollouts);
+		}
+		int best = 0;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < n; c++) {
+			double sum = 0;
+			for (int k = 0; k < rollouts; k++)
+				sum += outcomes[c * rollouts + k];
+			double value = sum / rollouts;
+			if (value > bestValue) {
+				best = c;
+				bestValue = value;
+			}
+		}
+		nanos.add(System.nanoTime() - start);
+		return candidates[best];
+	}
+
+	// outcome of a rollout after a move of 1-ply score score, drawing its
+	// pieces from generator state pieces
+	private double outcome(StateWrapper wrap, int move, double score, long pieces) {
+		Rollout r = ROLLOUT.get();
+		StateWrapper game = r.game;
+		game.reset(wrap);
+		game.makeMove(move);
+		r.pieces = pieces;
+		double outcome = score;
+		int m = 0;
+		for (; m < horizon && outcome > LOSS; m++) {
+			r.pieces = RandomPieceSource.advance(r.pieces);
+			game.setNextPiece(RandomPieceSource.piece(r.pieces));
+			// score the reply on its own lines, not those cleared before it
+			game.resetRowsCleared();
+			int reply = greedy(game, r);
+			if (reply < 0) {
+				outcome = LOSS;
+			} else {
+				game.makeMove(reply);
+				outcome += r.score;
+			}
+		}
+		moves.add(m);
+		return outcome;
+	}
+
+	// move of the 1-ply policy on a board, its score left in r.score, -1 if
+	// every move loses
+	private int greedy(StateWrapper wrap, Rollout r) {
+		int bestIndex = -1;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int i : PlacementIndex.moves(wrap.getNextPiece())) {
+			if (evaluator.bound(wrap, i, r.features) <= bestScore)
+				continue;
+			if (wrap.makeMove(i)) {
+				double score = evaluator.evaluate(wrap, r.features);
+				if (score > bestScore) {
+					bestIndex = i;
+					bestScore = score;
+				}
+				wrap.undoMove();
+			}
+		}
+		r.score = bestScore;
+		return bestIndex;
+	}
+
+	// moves played in rollouts so far
+	public long getMoves() {
+		return moves.sum();
+	}
+
+	// moves played in rollouts per second of search so far
+	public double getMovesPerSecond() {
+		long time = nanos.sum();
+		return time == 0 ? 0 : moves.sum() * 1e9 / time;
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Compares scoring the candidates one by one (FeatureSet.Evaluator.score, as
+ * pickMove does) with scoring them in one batch (FeatureMatrix), for the
+ * default and the extended feature sets: first the scoring alone on the
+ * candidates of recorded turns (scored PASSES times over, so that they stay
+ * in the caches), then whole pickMove calls of PlayerSkeletonTrain with each
+ * backend. Each measure is repeated, the first
+ * rounds warming the JIT up, and the moves picked are checked to be the same.
+ *
+ * Usage: java ScoringBenchmark [turns recorded] [rounds] [moves played]
+ */
+public class ScoringBenchmark {
+	private static final int PASSES = 100;
+
+	public static void main(String[] args) {
+		int turns = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int moves = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+		double[] extended = new double[FeatureSet.EXTENDED.size()];
+		for (int k = 0; k < extended.length; k++)
+			extended[k] = k % 3 == 0 ? 1 + k : -1 - k;
+		benchmark(FeatureSet.DEFAULT, PlayerSkeleton.WEIGHTS, turns, rounds, moves);
+		benchmark(FeatureSet.EXTENDED, extended, turns, rounds, moves);
+	}
+
+	private static void benchmark(FeatureSet set, double[] weights, int turns, int rounds, int moves) {
+		System.out.println(set);
+		FeatureSet.Evaluator evaluator = set.evaluator(weights);
+
+		// the candidates of the turns of a game, features by candidate and
+		// as matrices
+		FeatureMatrix[] matrices = new FeatureMatrix[turns];
+		double[][][] candidates = new double[turns][][];
+		State s = new State(new RandomPieceSource(0));
+		PlayerSkeletonTrain player = new PlayerSkeletonTrain(set, weights, 1, Integer.MAX_VALUE, 0);
+		double[] buffer = new double[Feature.NB_FEATURES];
+		int recorded = 0;
+		while (recorded < turns) {
+			if (s.hasLost())
+				s = new State(new RandomPieceSource(recorded));
+			StateWrapper wrap = new StateWrapper(s);
+			int[][] legalMoves = s.legalMoves();
+			FeatureMatrix matrix = new FeatureMatrix(set);
+			for (int i : PlacementIndex.moves(wrap.getNextPiece())) {
+				if (wrap.makeMove(i)) {
+					matrix.add(wrap, i, buffer);
+					wrap.undoMove();
+				}
+			}
+			candidates[recorded] = new double[matrix.size()][];
+			for (int c = 0; c < matrix.size(); c++) {
+				wrap.makeMove(matrix.move(c));
+				candidates[recorded][c] = new double[Feature.NB_FEATURES];
+				Feature.compute(wrap, set.mask(), candidates[recorded][c]);
+				wrap.undoMove();
+			}
+			matrices[recorded++] = matrix;
+			s.makeMove(player.pickMove(s, legalMoves));
+		}
+
+		for (int round = 0; round < rounds; round++) {
+			long checksum = 0;
+			long start = System.nanoTime();
+			for (int t = 0; t < turns * PASSES; t++) {
+				double[][] turn = candidates[t % turns];
+				int best = 0;
+				double bestScore = Double.NEGATIVE_INFINITY;
+				for (int c = 0; c < turn.length; c++) {
+					double score = evaluator.score(turn[c]);
+					if (score > bestScore) {
+						best = c;
+						bestScore = score;
+					}
+				}
+				checksum = checksum * 31 + best;
+			}
+			long scalar = System.nanoTime() - start;
+			long batchChecksum = 0;
+			start = System.nanoTime();
+			for (int t = 0; t < turns * PASSES; t++)
+				batchChecksum = batchChecksum * 31 + Math.max(evaluator.best(matrices[t % turns]), 0);
+			long batch = System.nanoTime() - start;
+			check(checksum, batchChecksum);
+			System.out.printf("  scoring: one by one %.1f ns/turn, batch %.1f ns/turn%n",
+					(double) scalar / turns / PASSES, (double) batch / turns / PASSES);
+		}
+
+		PlayerSkeletonTrain[] backends = new PlayerSkeletonTrain[3];
+		String[] names = { "one by one", "pruned", "batch" };
+		for (int b = 0; b < backends.length; b++) {
+			backends[b] = new PlayerSkeletonTrain(set, weights, 1, Integer.MAX_VALUE, 0);
+			backends[b].setPruning(b == 1);
+			backends[b].setBatchScoring(b == 2);
+		}
+		for (int round = 0; round < rounds; round++) {
+			StringBuilder line = new StringBuilder("  pickMove:");
+			long expected = 0;
+			for (int b = 0; b < backends.length; b++) {
+				long checksum = 0;
+				long start = System.nanoTime();
+				s = new State(new RandomPieceSource(0));
+				for (int t = 0; t < moves; t++) {
+					if (s.hasLost())
+						s = new State(new RandomPieceSource(t));
+					int move = backends[b].pickMove(s, s.legalMoves());
+					checksum = checksum * 31 + move;
+					s.makeMove(move);
+				}
+				long time = System.nanoTime() - start;
+				if (b == 0)
+					expected = checksum;
+				check(expected, checksum);
+				line.append(String.format(" %s %.2f us/move,", names[b], time / 1e3 / moves));
+			}
+			line.setLength(line.length() - 1);
+			System.out.println(line);
+		}
+	}
+
+	private static void check(long expected, long checksum) {
+		if (expected != checksum)
+			throw new IllegalStateException("The backends picked different moves");
+	}
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Fork/join pool shared by the searches to score their candidate moves in
+ * parallel, for a single game where the time per move matters.
+ *
+ * When games are already played in parallel (GamePool runs one per core),
+ * splitting their searches too only adds overhead: tasks playing games call
+ * gameStarted() / gameFinished(), and available() is false as long as they
+ * keep every core busy, or when called from the pool itself.
+ */
+public final class SearchPool {
+	private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+	private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM);
+
+	// tasks currently playing games in parallel
+	private static final AtomicInteger GAMES = new AtomicInteger();
+
+	private SearchPool() {
+	}
+
+	// a task starts playing games next to others
+	public static void gameStarted() {
+		GAMES.incrementAndGet();
+	}
+
+	// a task started with gameStarted() is done playing
+	public static void gameFinished() {
+		GAMES.decrementAndGet();
+	}
+
+	// true if a search splitting its candidates can expect a free core
+	public static boolean available() {
+		return PARALLELISM > 1 && GAMES.get() < PARALLELISM && !ForkJoinTask.inForkJoinPool();
+	}
+
+	/**
+	 * Value every candidate in parallel and return the best one, as the
+	 * sequential loop keeping the first candidate of strictly higher value
+	 * would: the first of the candidates of highest value
+	 *
+	 * @param n
+	 *            number of candidates
+	 * @param value
+	 *            value of candidate k (0 .. n-1), called once per candidate
+	 *            from the threads of the pool
+	 * @return the best candidate, -1 if no value is above -infinity
+	 */
+	public static int argmax(int n, IntToDoubleFunction value) {
+		if (n == 0)
+			return -1;
+		Best best = POOL.invoke(new Argmax(value, 0, n));
+		return best.value > Double.NEGATIVE_INFINITY ? best.index : -1;
+	}
+
+	/**
+	 * Run tasks 0 .. n-1 in parallel and wait for all of them
+	 *
+	 * @param n
+	 *            number of tasks
+	 * @param task
+	 *            runs task k, called once per task from the threads of the
+	 *            pool
+	 */
+	public static void forEach(int n, IntConsumer task) {
+		if (n > 0)
+			POOL.invoke(new ForEach(task, 0, n));
+	}
+
+	private static final class Best {
+		final int index;
+		final double value;
+
+		Best(int index, double value) {
+			this.index = index;
+			this.value = value;
+		}
+	}
+
+	// best of the candidates from .. to-1
+	private static final class Argmax extends RecursiveTask<Best> {
+		private static final long serialVersionUID = 1L;
+		private final IntToDoubleFunction value;
+		private final int from;
+		private final int to;
+
+		Argmax(IntToDoubleFunction value, int from, int to) {
+			this.value = value;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Best compute() {
+			if (to - from == 1)
+				return new Best(from, value.applyAsDouble(from));
+			int middle = (from + to) >>> 1;
+			Argmax left = new Argmax(value, from, middle);
+			left.fork();
+			Best right = new Argmax(value, middle, to).compute();
+			Best best = left.join();
+			// the left half comes first, it keeps ties
+			return right.value > best.value ? right : best;
+		}
+	}
+
+	// tasks from .. to-1
+	private static final class ForEach extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final IntConsumer task;
+		private final int from;
+		private final int to;
+
+		ForEach(IntConsumer task, int from, int to) {
+			this.task = task;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				task.accept(from);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ForEach(task, from, middle), new ForEach(task, middle, to));
+		}
+	}
+}
@@ -0,0 +1,20 @@
+/**
+ * Plays a precomputed sequence of pieces, starting over from the beginning
+ * once it runs out.
+ */
+public class SequencePieceSource implements PieceSource {
+	private final int[] pieces;
+	private int next = 0;
+
+	public SequencePieceSource(int[] pieces) {
+		this.pieces = pieces;
+	}
+
+	@Override
+	public int nextPiece() {
+		int piece = pieces[next++];
+		if (next == pieces.length)
+			next = 0;
+		return piece;
+	}
+}
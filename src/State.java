@@ -1,4 +1,4 @@
-import java.awt.Color;
+import java.util.Arrays;
 
 
 
@@ -7,6 +7,8 @@ public class State {
 	public static final int COLS = 10;
 	public static final int ROWS = 21;
 	public static final int N_PIECES = 7;
+	//row mask with every column filled
+	public static final int FULL_ROW = (1 << COLS) - 1;
 
 	
 
@@ -16,14 +18,16 @@ public class State {
 	
 
 	
-	public TLabel label;
-	
 	//current turn
 	private int turn = 0;
 	private int cleared = 0;
 	
 	//each square in the grid - int means empty - other values mean the turn it was placed
 	private int[][] field = new int[ROWS][COLS];
+	//bitboard of the grid - one mask per row, bit c set if column c is filled
+	private int[] rows = new int[ROWS];
+	//Zobrist hash of the grid, updated as it changes
+	private long hash = 0;
 	//top row+1 of each column
 	//0 means empty
 	private int[] top = new int[COLS];
@@ -31,6 +35,8 @@ public class State {
 	
 	//number of next piece
 	protected int nextPiece;
+	//where the pieces come from
+	private final PieceSource pieces;
 	
 	
 	
@@ -84,8 +90,8 @@ public class State {
 		{{2,2,1},{2,3}}
 	};
 	
-	//initialize legalMoves
-	{
+	//initialize legalMoves - once, the placements never change
+	static {
 		//for each piece type
 		for(int i = 0; i < N_PIECES; i++) {
 			//figure number of legal moves
@@ -119,6 +125,16 @@ public class State {
 		return top;
 	}
 
+	//Zobrist hash of the grid, equal boards have equal hashes
+	public long getHash() {
+		return hash;
+	}
+
+	//row masks of the grid - bit c of getRows()[r] is set if field[r][c] is filled
+	public int[] getRows() {
+		return rows;
+	}
+
     public static int[] getpOrients() {
         return pOrients;
     }
@@ -160,13 +176,19 @@ public class State {
 	
 	//constructor
 	public State() {
+		this(new RandomPieceSource());
+	}
+	
+	//constructor drawing the pieces from a given source, e.g. a seeded one to replay a game
+	public State(PieceSource pieces) {
+		this.pieces = pieces;
 		nextPiece = randomPiece();
 
 	}
 	
-	//random integer, returns 0-6
+	//next piece from the source, returns 0-6
 	private int randomPiece() {
-		return (int)(Math.random()*N_PIECES);
+		return pieces.nextPiece();
 	}
 	
 
@@ -189,64 +211,66 @@ public class State {
 	
 	//returns false if you lose - true otherwise
 	public boolean makeMove(int orient, int slot) {
+		int id = PlacementTable.id(nextPiece, orient, slot);
 		turn++;
-		//height if the first column makes contact
-		int height = top[slot]-pBottom[nextPiece][orient][0];
-		//for each column beyond the first in the piece
-		for(int c = 1; c < pWidth[nextPiece][orient];c++) {
-			height = Math.max(height,top[slot+c]-pBottom[nextPiece][orient][c]);
-		}
+		int width = PlacementTable.WIDTH[id];
+		int pieceHeight = PlacementTable.HEIGHT[id];
+		int o = id*PlacementTable.MAX_WIDTH;
+		//height if the first column makes contact, then any column beyond
+		int height = PlacementTable.landingHeight(id, top);
 		
 		//check if game ended
-		if(height+pHeight[nextPiece][orient] >= ROWS) {
+		if(height+pieceHeight >= ROWS) {
 			lost = true;
 			return false;
 		}
 
 		
-		//for each column in the piece - fill in the appropriate blocks
-		for(int i = 0; i < pWidth[nextPiece][orient]; i++) {
+		//for each column in the piece - fill in the appropriate blocks and adjust top
+		for(int i = 0; i < width; i++) {
 			
 			//from bottom to top of brick
-			for(int h = height+pBottom[nextPiece][orient][i]; h < height+pTop[nextPiece][orient][i]; h++) {
+			for(int h = height+PlacementTable.BOTTOM[o+i]; h < height+PlacementTable.TOP[o+i]; h++) {
 				field[h][i+slot] = turn;
 			}
+			top[slot+i]=height+PlacementTable.TOP[o+i];
 		}
-		
-		//adjust top
-		for(int c = 0; c < pWidth[nextPiece][orient]; c++) {
-			top[slot+c]=height+pTop[nextPiece][orient][c];
+		boolean full = false;
+		for(int k = 0; k < pieceHeight; k++) {
+			int r = height+k;
+			hash ^= Zobrist.row(r, rows[r]);
+			rows[r] |= PlacementTable.ROW_MASK[o+k];
+			hash ^= Zobrist.row(r, rows[r]);
+			full |= rows[r] == FULL_ROW;
 		}
+		//rows above the cleared ones move - rehash them
+		if(full)	hash ^= Zobrist.rows(rows, height, ROWS);
 		
 		int rowsCleared = 0;
 		
 		//check for full rows - starting at the top
-		for(int r = height+pHeight[nextPiece][orient]-1; r >= height; r--) {
-			//check all columns in the row
-			boolean full = true;
-			for(int c = 0; c < COLS; c++) {
-				if(field[r][c] == 0) {
-					full = false;
-					break;
-				}
-			}
+		for(int r = height+pieceHeight-1; r >= height; r--) {
 			//if the row was full - remove it and slide above stuff down
-			if(full) {
+			if(rows[r] == FULL_ROW) {
 				rowsCleared++;
 				cleared++;
-				//for each column
+				//slide down all rows, recycling the cleared one as the new empty top row
+				int[] clearedRow = field[r];
+				for(int i = r; i < ROWS-1; i++) {
+					field[i] = field[i+1];
+					rows[i] = rows[i+1];
+				}
+				Arrays.fill(clearedRow, 0);
+				field[ROWS-1] = clearedRow;
+				rows[ROWS-1] = 0;
+				//for each column - lower the top
 				for(int c = 0; c < COLS; c++) {
-
-					//slide down all bricks
-					for(int i = r; i < top[c]; i++) {
-						field[i][c] = field[i+1][c];
-					}
-					//lower the top
 					top[c]--;
-					while(top[c]>=1 && field[top[c]-1][c]==0)	top[c]--;
+					while(top[c]>=1 && (rows[top[c]-1] & (1 << c))==0)	top[c]--;
 				}
 			}
 		}
+		if(full)	hash ^= Zobrist.rows(rows, height, ROWS);
 	
 
 		//pick a new piece
@@ -257,62 +281,7 @@ public class State {
 		return true;
 	}
 	
-	public void draw() {
-		label.clear();
-		label.setPenRadius();
-		//outline board
-		label.line(0, 0, 0, ROWS+5);
-		label.line(COLS, 0, COLS, ROWS+5);
-		label.line(0, 0, COLS, 0);
-		label.line(0, ROWS-1, COLS, ROWS-1);
-		
-		//show bricks
-				
-		for(int c = 0; c < COLS; c++) {
-			for(int r = 0; r < top[c]; r++) {
-				if(field[r][c] != 0) {
-					drawBrick(c,r);
-				}
-			}
-		}
-		
-		for(int i = 0; i < COLS; i++) {
-			label.setPenColor(Color.red);
-			label.line(i, top[i], i+1, top[i]);
-			label.setPenColor();
-		}
-		
-		label.show();
-		
-		
-	}
-	
-	public static final Color brickCol = Color.gray; 
-	
-	private void drawBrick(int c, int r) {
-		label.filledRectangleLL(c, r, 1, 1, brickCol);
-		label.rectangleLL(c, r, 1, 1);
-	}
-	
-	public void drawNext(int slot, int orient) {
-		for(int i = 0; i < pWidth[nextPiece][orient]; i++) {
-			for(int j = pBottom[nextPiece][orient][i]; j <pTop[nextPiece][orient][i]; j++) {
-				drawBrick(i+slot, j+ROWS+1);
-			}
-		}
-		label.show();
-	}
-	
-	//visualization
-	//clears the area where the next piece is shown (top)
-	public void clearNext() {
-		label.filledRectangleLL(0, ROWS+.9, COLS, 4.2, TLabel.DEFAULT_CLEAR_COLOR);
-		label.line(0, 0, 0, ROWS+5);
-		label.line(COLS, 0, COLS, ROWS+5);
-	}
-	
 
-	
 
 }
 
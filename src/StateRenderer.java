@@ -0,0 +1,83 @@
+import java.awt.Color;
+
+/**
+ * Draws a State on a TLabel. The State itself knows nothing about drawing,
+ * the renderer only reads it through its getters whenever asked to redraw.
+ */
+public class StateRenderer {
+	public static final Color brickCol = Color.gray;
+
+	private final TLabel label;
+	private State s;
+
+	public StateRenderer(State s, TLabel label) {
+		this.s = s;
+		this.label = label;
+	}
+
+	//switches which state is drawn
+	public void bindState(State s) {
+		this.s = s;
+	}
+
+	public State getState() {
+		return s;
+	}
+
+	public void draw() {
+		int[][] field = s.getField();
+		int[] top = s.getTop();
+		label.clear();
+		label.setPenRadius();
+		//outline board
+		label.line(0, 0, 0, State.ROWS+5);
+		label.line(State.COLS, 0, State.COLS, State.ROWS+5);
+		label.line(0, 0, State.COLS, 0);
+		label.line(0, State.ROWS-1, State.COLS, State.ROWS-1);
+		
+		//show bricks
+				
+		for(int c = 0; c < State.COLS; c++) {
+			for(int r = 0; r < top[c]; r++) {
+				if(field[r][c] != 0) {
+					drawBrick(c,r);
+				}
+			}
+		}
+		
+		for(int i = 0; i < State.COLS; i++) {
+			label.setPenColor(Color.red);
+			label.line(i, top[i], i+1, top[i]);
+			label.setPenColor();
+		}
+		
+		label.show();
+		
+		
+	}
+	
+	private void drawBrick(int c, int r) {
+		label.filledRectangleLL(c, r, 1, 1, brickCol);
+		label.rectangleLL(c, r, 1, 1);
+	}
+	
+	public void drawNext(int slot, int orient) {
+		int nextPiece = s.getNextPiece();
+		int[] bottom = State.getpBottom()[nextPiece][orient];
+		int[] pieceTop = State.getpTop()[nextPiece][orient];
+		for(int i = 0; i < State.getpWidth()[nextPiece][orient]; i++) {
+			for(int j = bottom[i]; j < pieceTop[i]; j++) {
+				drawBrick(i+slot, j+State.ROWS+1);
+			}
+		}
+		label.show();
+	}
+	
+	//visualization
+	//clears the area where the next piece is shown (top)
+	public void clearNext() {
+		label.filledRectangleLL(0, State.ROWS+.9, State.COLS, 4.2, TLabel.DEFAULT_CLEAR_COLOR);
+		label.line(0, 0, 0, State.ROWS+5);
+		label.line(State.COLS, 0, State.COLS, State.ROWS+5);
+	}
+}
@@ -1,21 +1,168 @@
+
 import java.util.Arrays;
 
 public class StateWrapper {
 	// private final State mutableState;
-	private int[][] field;
+	// one mask per row, bit c set if column c is filled
+	private int[] rows;
+	// the same squares by column, bit r of cols[c] set if row r is filled
+	private final int[] cols = new int[State.COLS];
 	private int[] top;
 	private int rowsCleared = 0;
-	private final int nextPiece;
+	private int nextPiece;
+	// Zobrist hash of rows, updated as it changes
+	private long hash;
+	// 0/1 view of rows, only built when getField() is called
+	private int[][] field;
+
+	// features of the board, kept up to date by makeMove: the share of each
+	// column / row and their totals (see Feature for their definitions)
+	private final int[] columnHoles = new int[State.COLS];
+	private final int[] columnTransitions = new int[State.COLS];
+	private final int[] columnWells = new int[State.COLS];
+	private final int[] rowTransitions = new int[State.ROWS];
+	private int holes;
+	private int totalColumnTransitions;
+	private int wells;
+	private int totalRowTransitions;
+
+	// undo log, one UNDO_SIZE entry per move made and not yet undone:
+	// PlacementTable id, landing height, rows cleared by the move, which rows
+	// of the piece they were (bit k for row height+k), squares of the piece
+	// in those rows, then what the move changed as it was before: the feature
+	// totals, and top, holes, transitions and wells of the columns of the
+	// piece, wells of the columns next to it and transitions of the rows of
+	// the piece. Moves clearing rows change the whole board, so they log none
+	// of it and the board and features are rebuilt when they are undone.
+	private static final int U_ID = 0;
+	private static final int U_HEIGHT = 1;
+	private static final int U_CLEARED = 2;
+	private static final int U_CLEARED_ROWS = 3;
+	private static final int U_ERODED = 4;
+	private static final int U_TOTALS = 5;
+	private static final int U_TOP = U_TOTALS + 4;
+	private static final int U_HOLES = U_TOP + PlacementTable.MAX_WIDTH;
+	private static final int U_COLUMN_TRANSITIONS = U_HOLES + PlacementTable.MAX_WIDTH;
+	private static final int U_WELLS = U_COLUMN_TRANSITIONS + PlacementTable.MAX_WIDTH;
+	private static final int U_ROW_TRANSITIONS = U_WELLS + PlacementTable.MAX_WIDTH + 2;
+	private static final int UNDO_SIZE = U_ROW_TRANSITIONS + PlacementTable.MAX_HEIGHT;
+	private int[] undo = new int[UNDO_SIZE * 4];
+	private int undoTop = 0;
+	// hash before each move of the undo log
+	private long[] undoHash = new long[4];
+
+	// Empty board, to be filled with reset()
+	public StateWrapper() {
+		rows = new int[State.ROWS];
+		top = new int[State.COLS];
+		computeFeatures();
+	}
 
 	// Public constructor, for the first call, copying the outer state
 	public StateWrapper(State state) {
-		field = Arrays.stream(state.getField()).map(j -> j.clone()).toArray(int[][]::new);
-		top = Arrays.copyOf(state.getTop(), State.COLS);
+		rows = state.getRows().clone();
+		top = state.getTop().clone();
 		nextPiece = state.getNextPiece();
+		hash = state.getHash();
+		computeFeatures();
+	}
+
+	// Copy the outer state again, reusing this wrapper's arrays
+	public void reset(State state) {
+		System.arraycopy(state.getRows(), 0, rows, 0, State.ROWS);
+		System.arraycopy(state.getTop(), 0, top, 0, State.COLS);
+		nextPiece = state.getNextPiece();
+		hash = state.getHash();
+		rowsCleared = 0;
+		undoTop = 0;
+		field = null;
+		computeFeatures();
+	}
+
+	// Copy another search state as it is now, without its undo log
+	public void reset(StateWrapper state) {
+		System.arraycopy(state.rows, 0, rows, 0, State.ROWS);
+		System.arraycopy(state.top, 0, top, 0, State.COLS);
+		nextPiece = state.nextPiece;
+		hash = state.hash;
+		rowsCleared = state.rowsCleared;
+		undoTop = 0;
+		field = null;
+		computeFeatures();
+	}
+
+	// Load a board stored in rows[rowOffset ..] and top[topOffset ..], with
+	// the given piece to play
+	public void load(int[] rows, int rowOffset, int[] top, int topOffset, int piece) {
+		load(rows, rowOffset, top, topOffset, piece, 0);
+	}
+
+	// Same, counting rowsCleared rows as cleared already (see getRowsCleared)
+	public void load(int[] rows, int rowOffset, int[] top, int topOffset, int piece, int rowsCleared) {
+		System.arraycopy(rows, rowOffset, this.rows, 0, State.ROWS);
+		System.arraycopy(top, topOffset, this.top, 0, State.COLS);
+		nextPiece = piece;
+		hash = Zobrist.board(this.rows);
+		this.rowsCleared = rowsCleared;
+		undoTop = 0;
+		field = null;
+		computeFeatures();
+	}
+
+	// layout of a board saved by save(): rows, top, column masks, the
+	// features of each column and row, the feature totals and the hash
+	private static final int S_ROWS = 0;
+	private static final int S_TOP = S_ROWS + State.ROWS;
+	private static final int S_COLS = S_TOP + State.COLS;
+	private static final int S_HOLES = S_COLS + State.COLS;
+	private static final int S_COLUMN_TRANSITIONS = S_HOLES + State.COLS;
+	private static final int S_WELLS = S_COLUMN_TRANSITIONS + State.COLS;
+	private static final int S_ROW_TRANSITIONS = S_WELLS + State.COLS;
+	private static final int S_TOTALS = S_ROW_TRANSITIONS + State.ROWS;
+	private static final int S_HASH = S_TOTALS + 4;
+	// ints taken by a saved board
+	public static final int SAVED_SIZE = S_HASH + 2;
+
+	// Save the board and its features in saved[offset .. offset+SAVED_SIZE-1],
+	// to be restored without computing them again
+	public void save(int[] saved, int offset) {
+		System.arraycopy(rows, 0, saved, offset + S_ROWS, State.ROWS);
+		System.arraycopy(top, 0, saved, offset + S_TOP, State.COLS);
+		System.arraycopy(cols, 0, saved, offset + S_COLS, State.COLS);
+		System.arraycopy(columnHoles, 0, saved, offset + S_HOLES, State.COLS);
+		System.arraycopy(columnTransitions, 0, saved, offset + S_COLUMN_TRANSITIONS, State.COLS);
+		System.arraycopy(columnWells, 0, saved, offset + S_WELLS, State.COLS);
+		System.arraycopy(rowTransitions, 0, saved, offset + S_ROW_TRANSITIONS, State.ROWS);
+		saved[offset + S_TOTALS] = holes;
+		saved[offset + S_TOTALS + 1] = totalColumnTransitions;
+		saved[offset + S_TOTALS + 2] = wells;
+		saved[offset + S_TOTALS + 3] = totalRowTransitions;
+		saved[offset + S_HASH] = (int) hash;
+		saved[offset + S_HASH + 1] = (int) (hash >>> 32);
+	}
+
+	// Load a board saved by save(), with the given piece to play
+	public void restore(int[] saved, int offset, int piece) {
+		System.arraycopy(saved, offset + S_ROWS, rows, 0, State.ROWS);
+		System.arraycopy(saved, offset + S_TOP, top, 0, State.COLS);
+		System.arraycopy(saved, offset + S_COLS, cols, 0, State.COLS);
+		System.arraycopy(saved, offset + S_HOLES, columnHoles, 0, State.COLS);
+		System.arraycopy(saved, offset + S_COLUMN_TRANSITIONS, columnTransitions, 0, State.COLS);
+		System.arraycopy(saved, offset + S_WELLS, columnWells, 0, State.COLS);
+		System.arraycopy(saved, offset + S_ROW_TRANSITIONS, rowTransitions, 0, State.ROWS);
+		holes = saved[offset + S_TOTALS];
+		totalColumnTransitions = saved[offset + S_TOTALS + 1];
+		wells = saved[offset + S_TOTALS + 2];
+		totalRowTransitions = saved[offset + S_TOTALS + 3];
+		hash = saved[offset + S_HASH] & 0xFFFFFFFFL | (long) saved[offset + S_HASH + 1] << 32;
+		nextPiece = piece;
+		rowsCleared = 0;
+		undoTop = 0;
+		field = null;
 	}
 
 	public boolean makeMove(int move) {
-		return makeMove(State.legalMoves[nextPiece][move]);
+		return place(PlacementTable.id(nextPiece, move));
 	}
 
 	// make a move based on an array of orient and slot
@@ -26,76 +173,325 @@ public class StateWrapper {
 	// returns false if you lose - true otherwise and make the move in the
 	// "fake" state
 	public boolean makeMove(int orient, int slot) {
-		// height if the first column makes contact
-		int height = top[slot] - State.getpBottom()[nextPiece][orient][0];
-		// for each column beyond the first in the piece
-		for (int c = 1; c < State.getpWidth()[nextPiece][orient]; c++) {
-			height = Math.max(height, top[slot + c] - State.getpBottom()[nextPiece][orient][c]);
-		}
+		return place(PlacementTable.id(nextPiece, orient, slot));
+	}
+
+	// make the move given by its PlacementTable id
+	private boolean place(int id) {
+		int pieceHeight = PlacementTable.HEIGHT[id];
+		int height = PlacementTable.landingHeight(id, top);
 
 		// check if game ended
-		if (height + State.getpHeight()[nextPiece][orient] >= State.ROWS + rowsCleared) {
+		if (height + pieceHeight >= State.ROWS) {
 			return false;
 		}
 
-		// for each column in the piece - fill in the appropriate blocks
-		for (int i = 0; i < State.getpWidth()[nextPiece][orient]; i++) {
+		// log what is needed to take the move back
+		if (undoTop == undo.length) {
+			undo = Arrays.copyOf(undo, undo.length * 2);
+			undoHash = Arrays.copyOf(undoHash, undoHash.length * 2);
+		}
+		int entry = undoTop;
+		undoTop += UNDO_SIZE;
+		undoHash[entry / UNDO_SIZE] = hash;
+		undo[entry + U_ID] = id;
+		undo[entry + U_HEIGHT] = height;
 
-			// from bottom to top of brick
-			for (int h = height + State.getpBottom()[nextPiece][orient][i]; h < height
-					+ State.getpTop()[nextPiece][orient][i]; h++) {
-				field[h][i + slot] = 1;
+		// fill in the rows of the piece, noting the ones that get full and
+		// the squares of the piece they take away
+		int o = id * PlacementTable.MAX_WIDTH;
+		int cleared = 0;
+		int clearedRows = 0;
+		int eroded = 0;
+		for (int k = 0; k < pieceHeight; k++) {
+			int r = height + k;
+			hash ^= Zobrist.row(r, rows[r]);
+			if ((rows[r] |= PlacementTable.ROW_MASK[o + k]) == State.FULL_ROW) {
+				cleared++;
+				clearedRows |= 1 << k;
+				eroded += Integer.bitCount(PlacementTable.ROW_MASK[o + k]);
 			}
+			hash ^= Zobrist.row(r, rows[r]);
 		}
+		field = null;
+		undo[entry + U_CLEARED] = cleared;
+		undo[entry + U_CLEARED_ROWS] = clearedRows;
+		undo[entry + U_ERODED] = eroded;
+		rowsCleared += cleared;
 
-		// adjust top
-		for (int c = 0; c < State.getpWidth()[nextPiece][orient]; c++) {
-			top[slot + c] = height + State.getpTop()[nextPiece][orient][c];
+		int slot = PlacementTable.SLOT[id];
+		int width = PlacementTable.WIDTH[id];
+		if (cleared > 0) {
+			for (int c = 0; c < width; c++)
+				cols[slot + c] |= PlacementTable.COLUMN_MASK[o + c] << height;
+			collapse(height, clearedRows);
+			return true;
 		}
 
-		// check for full rows - starting at the top
-		for (int r = height + State.getpHeight()[nextPiece][orient] - 1; r >= height; r--) {
-			// check all columns in the row
-			boolean full = true;
-			for (int c = 0; c < State.COLS; c++) {
-				if (field[r][c] == 0) {
-					full = false;
-					break;
-				}
-			}
-			// if the row was full - remove it and slide above stuff down
-			if (full)
-				rowsCleared++;
+		undo[entry + U_TOTALS] = holes;
+		undo[entry + U_TOTALS + 1] = totalColumnTransitions;
+		undo[entry + U_TOTALS + 2] = wells;
+		undo[entry + U_TOTALS + 3] = totalRowTransitions;
 
+		// adjust top of each column of the piece
+		for (int c = 0; c < width; c++) {
+			undo[entry + U_TOP + c] = top[slot + c];
+			top[slot + c] = height + PlacementTable.TOP[o + c];
+			cols[slot + c] |= PlacementTable.COLUMN_MASK[o + c] << height;
+		}
+
+		// update the features where the piece went: holes and transitions of
+		// its columns, wells of its columns and their neighbours, transitions
+		// of its rows
+		for (int c = 0; c < width; c++) {
+			int col = slot + c;
+			undo[entry + U_HOLES + c] = columnHoles[col];
+			undo[entry + U_COLUMN_TRANSITIONS + c] = columnTransitions[col];
+			holes -= columnHoles[col];
+			totalColumnTransitions -= columnTransitions[col];
+			columnHoles[col] = BitFeatures.columnHoles(cols[col], top[col]);
+			columnTransitions[col] = BitFeatures.columnTransitions(cols[col]);
+			holes += columnHoles[col];
+			totalColumnTransitions += columnTransitions[col];
+		}
+		int first = Math.max(slot - 1, 0);
+		int last = Math.min(slot + width, State.COLS - 1);
+		for (int col = first; col <= last; col++) {
+			undo[entry + U_WELLS + col - first] = columnWells[col];
+			wells -= columnWells[col];
+			columnWells[col] = columnWells(col);
+			wells += columnWells[col];
+		}
+		for (int k = 0; k < pieceHeight; k++) {
+			int r = height + k;
+			undo[entry + U_ROW_TRANSITIONS + k] = rowTransitions[r];
+			totalRowTransitions += (rowTransitions[r] = BitFeatures.rowTransitions(rows[r]))
+					- undo[entry + U_ROW_TRANSITIONS + k];
 		}
 		return true;
 	}
 
-	// Return the Field array
+	// remove the given rows of the piece landed at height (bit k for row
+	// height+k), full, from the rows and columns, then rebuild the tops and
+	// features of the board
+	private void collapse(int height, int clearedRows) {
+		hash ^= Zobrist.rows(rows, height, State.ROWS);
+		for (int k = PlacementTable.MAX_HEIGHT - 1; k >= 0; k--) {
+			if ((clearedRows & 1 << k) == 0)
+				continue;
+			int r = height + k;
+			System.arraycopy(rows, r + 1, rows, r, State.ROWS - 1 - r);
+			rows[State.ROWS - 1] = 0;
+			int below = (1 << r) - 1;
+			for (int c = 0; c < State.COLS; c++)
+				cols[c] = cols[c] & below | (cols[c] >>> 1) & ~below;
+		}
+		hash ^= Zobrist.rows(rows, height, State.ROWS);
+		for (int c = 0; c < State.COLS; c++)
+			top[c] = 32 - Integer.numberOfLeadingZeros(cols[c]);
+		updateFeatures();
+	}
+
+	// put back the full rows removed by collapse(), the reverse of it
+	private void uncollapse(int height, int clearedRows) {
+		for (int k = 0; k < PlacementTable.MAX_HEIGHT; k++) {
+			if ((clearedRows & 1 << k) == 0)
+				continue;
+			int r = height + k;
+			System.arraycopy(rows, r, rows, r + 1, State.ROWS - 1 - r);
+			rows[r] = State.FULL_ROW;
+			int below = (1 << r) - 1;
+			for (int c = 0; c < State.COLS; c++)
+				cols[c] = cols[c] & below | 1 << r | (cols[c] & ~below) << 1;
+		}
+	}
+
+	// take back the last move made with makeMove (that did not lose)
+	public void undoMove() {
+		undoTop -= UNDO_SIZE;
+		int entry = undoTop;
+		int id = undo[entry + U_ID];
+		int height = undo[entry + U_HEIGHT];
+		int slot = PlacementTable.SLOT[id];
+		int width = PlacementTable.WIDTH[id];
+		int o = id * PlacementTable.MAX_WIDTH;
+		rowsCleared -= undo[entry + U_CLEARED];
+		hash = undoHash[entry / UNDO_SIZE];
+		field = null;
+		if (undo[entry + U_CLEARED] > 0) {
+			uncollapse(height, undo[entry + U_CLEARED_ROWS]);
+			for (int k = 0; k < PlacementTable.HEIGHT[id]; k++)
+				rows[height + k] &= ~PlacementTable.ROW_MASK[o + k];
+			for (int c = 0; c < width; c++) {
+				cols[slot + c] &= ~(PlacementTable.COLUMN_MASK[o + c] << height);
+			}
+			for (int c = 0; c < State.COLS; c++)
+				top[c] = 32 - Integer.numberOfLeadingZeros(cols[c]);
+			updateFeatures();
+			return;
+		}
+		for (int k = 0; k < PlacementTable.HEIGHT[id]; k++) {
+			rows[height + k] &= ~PlacementTable.ROW_MASK[o + k];
+			rowTransitions[height + k] = undo[entry + U_ROW_TRANSITIONS + k];
+		}
+		for (int c = 0; c < width; c++) {
+			top[slot + c] = undo[entry + U_TOP + c];
+			cols[slot + c] &= ~(PlacementTable.COLUMN_MASK[o + c] << height);
+			columnHoles[slot + c] = undo[entry + U_HOLES + c];
+			columnTransitions[slot + c] = undo[entry + U_COLUMN_TRANSITIONS + c];
+		}
+		int first = Math.max(slot - 1, 0);
+		int last = Math.min(slot + width, State.COLS - 1);
+		for (int col = first; col <= last; col++) {
+			columnWells[col] = undo[entry + U_WELLS + col - first];
+		}
+		holes = undo[entry + U_TOTALS];
+		totalColumnTransitions = undo[entry + U_TOTALS + 1];
+		wells = undo[entry + U_TOTALS + 2];
+		totalRowTransitions = undo[entry + U_TOTALS + 3];
+	}
+
+	// compute the column masks and every feature of the board from scratch
+	private void computeFeatures() {
+		for (int c = 0; c < State.COLS; c++) {
+			int column = 0;
+			for (int r = top[c] - 1; r >= 0; r--)
+				column = column << 1 | (rows[r] >>> c) & 1;
+			cols[c] = column;
+		}
+		updateFeatures();
+	}
+
+	// compute every feature of the board from the rows, columns and tops
+	private void updateFeatures() {
+		holes = 0;
+		totalColumnTransitions = 0;
+		wells = 0;
+		for (int c = 0; c < State.COLS; c++) {
+			holes += columnHoles[c] = BitFeatures.columnHoles(cols[c], top[c]);
+			totalColumnTransitions += columnTransitions[c] = BitFeatures.columnTransitions(cols[c]);
+			wells += columnWells[c] = columnWells(c);
+		}
+		totalRowTransitions = 0;
+		for (int r = 0; r < State.ROWS; r++) {
+			totalRowTransitions += rowTransitions[r] = BitFeatures.rowTransitions(rows[r]);
+		}
+	}
+
+	// wells of column c, the walls counting as filled columns
+	private int columnWells(int c) {
+		int left = c == 0 ? BitFeatures.COLUMN_FULL : cols[c - 1];
+		int right = c == State.COLS - 1 ? BitFeatures.COLUMN_FULL : cols[c + 1];
+		return BitFeatures.columnWells(left, top[c], right);
+	}
+
+	// Return the Field array, 1 for filled and 0 for empty squares
 	public int[][] getField() {
+		if (field == null) {
+			field = new int[State.ROWS][State.COLS];
+			for (int r = 0; r < State.ROWS; r++) {
+				for (int c = 0; c < State.COLS; c++) {
+					field[r][c] = (rows[r] >>> c) & 1;
+				}
+			}
+		}
 		return field;
 	}
 
+	// Return the row masks (bit c of getRows()[r] set if the square is filled)
+	public int[] getRows() {
+		return rows;
+	}
+
+	// Return the Zobrist hash of the board, equal boards have equal hashes
+	public long getHash() {
+		return hash;
+	}
+
+	// Return the column masks (bit r of getCols()[c] set if the square is
+	// filled)
+	public int[] getCols() {
+		return cols;
+	}
+
 	// Return the Top array
 	public int[] getTop() {
 		return top;
 	}
 
-	// Return the number of cleared row (to use after makeMove !)
+	// Return the number of empty squares below the top of their column
+	public int getHoles() {
+		return holes;
+	}
+
+	// Return the number of filled/empty changes along the rows
+	public int getRowTransitions() {
+		return totalRowTransitions;
+	}
+
+	// Return the number of filled/empty changes along the columns
+	public int getColumnTransitions() {
+		return totalColumnTransitions;
+	}
+
+	// Return the sum of the well depths
+	public int getWells() {
+		return wells;
+	}
+
+	// Count the rows cleared from now on only, as after reset(State), so that
+	// the next move is scored on its own lines; moves made before must not be
+	// undone afterwards
+	public void resetRowsCleared() {
+		rowsCleared = 0;
+	}
+
+	// Return the number of rows cleared by the moves made since the state was
+	// copied or loaded (to use after makeMove !)
 	public int getRowsCleared() {
 		return rowsCleared;
 	}
 
+	// Return the PlacementTable id of the last move (-1 if there is none)
+	public int getLastPlacement() {
+		return undoTop == 0 ? -1 : undo[undoTop - UNDO_SIZE + U_ID];
+	}
+
+	// Return the row the bottom of the piece of the last move landed on (0 if
+	// there is none)
+	public int getLastLandingHeight() {
+		return undoTop == 0 ? 0 : undo[undoTop - UNDO_SIZE + U_HEIGHT];
+	}
+
+	// Return the number of rows the last move made filled (0 if there is none)
+	public int getLastRowsCleared() {
+		return undoTop == 0 ? 0 : undo[undoTop - UNDO_SIZE + U_CLEARED];
+	}
+
+	// Return the number of squares of the piece of the last move that are in
+	// the rows it filled, i.e. that get cleared with them
+	public int getLastClearedPieceCells() {
+		return undoTop == 0 ? 0 : undo[undoTop - UNDO_SIZE + U_ERODED];
+	}
+
 	public int getNextPiece() {
 		return nextPiece;
 	}
 
-	// For simulating multi-ply, inner call (use getnNextState)
+	// Change the piece to play, e.g. to search every possible next piece
+	// after a move: makeMove plays it, undoMove does not need it
+	public void setNextPiece(int piece) {
+		nextPiece = piece;
+	}
+
+	// For simulating multi-ply, inner call (use generateNextState)
 	private StateWrapper(StateWrapper state, int piece) {
-		field = Arrays.stream(state.getField()).map(int[]::clone).toArray(int[][]::new);
-		top = Arrays.copyOf(state.getTop(), State.COLS);
-		// Remove previous full line
-		// check for full rows - starting at the top
+		rows = state.rows.clone();
+		top = state.top.clone();
+		hash = state.hash;
+		computeFeatures();
+		// makeMove clears full rows as it fills them, so the board has none;
+		// the rows cleared so far carry over, the undo log does not
 		rowsCleared = state.rowsCleared;
 		nextPiece = piece;
 	}
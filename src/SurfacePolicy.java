@@ -0,0 +1,62 @@
+/**
+ * 1-ply policy answering from a SurfaceTable when it has the board, and
+ * asking the policy the table was compiled from otherwise (boards with holes,
+ * steep or not seen when compiling). The table holds the moves the fallback
+ * picks, so a hit plays the same game for a hash lookup instead of scoring
+ * every move.
+ */
+public class SurfacePolicy implements Policy {
+	private final SurfaceTable table;
+	private final Policy fallback;
+
+	// moves read from the table, and asked to the fallback, of which on
+	// boards without a key
+	private long hits;
+	private long misses;
+	private long keyless;
+
+	/**
+	 * @param table
+	 *            the moves of fallback on the boards it has
+	 * @param fallback
+	 *            the policy the table was compiled from
+	 */
+	public SurfacePolicy(SurfaceTable table, Policy fallback) {
+		this.table = table;
+		this.fallback = fallback;
+	}
+
+	@Override
+	public int pickMove(State s, int[][] legalMoves) {
+		long key = SurfaceTable.key(s.getRows(), s.getTop());
+		if (key >= 0) {
+			int move = table.get(key, s.getNextPiece());
+			if (move >= 0) {
+				hits++;
+				return move;
+			}
+		} else {
+			keyless++;
+		}
+		misses++;
+		return fallback.pickMove(s, legalMoves);
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getKeyless() {
+		return keyless;
+	}
+
+	// share of the moves read from the table
+	public double getHitRate() {
+		long moves = hits + misses;
+		return moves == 0 ? 0 : (double) hits / moves;
+	}
+}
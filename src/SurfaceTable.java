@@ -0,0 +1,134 @@
+import java.util.Arrays;
+
+/**
+ * Moves of a 1-ply policy looked up by the surface of the board, see
+ * SurfaceTableCompiler and SurfacePolicy.
+ *
+ * A board without holes is all its skyline: a column is filled from the
+ * bottom to its top, and its lowest column is empty (the rows below it would
+ * be full, so cleared). The move of a 1-ply policy on such a board depends on
+ * the height differences of neighbouring columns and the piece only. The key
+ * of a board is those differences, each within -CLIP .. CLIP; boards with
+ * holes or a larger difference have no key.
+ *
+ * The table is open addressing over a long[] of keys and a long[] of the
+ * moves of each key, the move of piece p in bits MOVE_BITS * p and up.
+ */
+public final class SurfaceTable {
+	// largest height difference in a key
+	public static final int CLIP = 4;
+	private static final int BASE = 2 * CLIP + 1;
+	private static final long EMPTY = -1;
+	private static final int MOVE_BITS = 6;
+	private static final long MOVE_MASK = (1 << MOVE_BITS) - 1;
+
+	private long[] keys;
+	private long[] moves;
+	private int size;
+
+	public SurfaceTable() {
+		keys = new long[1 << 10];
+		Arrays.fill(keys, EMPTY);
+		moves = new long[keys.length];
+	}
+
+	/**
+	 * @param rows
+	 *            the board, a row mask per row (State.getRows())
+	 * @param top
+	 *            the height of each column (State.getTop())
+	 * @return the key of the board, -1 if it has holes or a height difference
+	 *         above CLIP
+	 */
+	public static long key(int[] rows, int[] top) {
+		// a hole is a filled cell above an empty one
+		for (int r = 0; r < State.ROWS - 1; r++) {
+			if ((rows[r + 1] & ~rows[r]) != 0)
+				return -1;
+		}
+		long key = 0;
+		int min = top[0];
+		for (int c = 0; c < State.COLS - 1; c++) {
+			int difference = top[c + 1] - top[c];
+			if (difference < -CLIP || difference > CLIP)
+				return -1;
+			key = key * BASE + difference + CLIP;
+			min = Math.min(min, top[c + 1]);
+		}
+		if (min != 0)
+			return -1;
+		return key;
+	}
+
+	// move stored for a piece on the board of a key, -1 if there is none
+	public int get(long key, int piece) {
+		int mask = keys.length - 1;
+		for (int i = slot(key, mask);; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return (int) (moves[i] >>> MOVE_BITS * piece & MOVE_MASK);
+			if (keys[i] == EMPTY)
+				return -1;
+		}
+	}
+
+	// true if the table has the moves of the board of a key
+	public boolean contains(long key) {
+		return get(key, 0) >= 0;
+	}
+
+	/**
+	 * Store the moves of a board
+	 *
+	 * @param key
+	 *            the key of the board
+	 * @param move
+	 *            the move of each piece, below PlacementIndex.MAX_MOVES
+	 */
+	public void put(long key, int[] move) {
+		long packed = 0;
+		for (int p = 0; p < State.N_PIECES; p++)
+			packed |= (long) move[p] << MOVE_BITS * p;
+		put(key, packed);
+	}
+
+	private void put(long key, long packed) {
+		if (2 * (size + 1) > keys.length)
+			grow();
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (keys[i] != EMPTY && keys[i] != key)
+			i = (i + 1) & mask;
+		if (keys[i] == EMPTY)
+			size++;
+		keys[i] = key;
+		moves[i] = packed;
+	}
+
+	// number of boards stored
+	public int size() {
+		return size;
+	}
+
+	// memory taken by the table
+	public long bytes() {
+		return 16L * keys.length;
+	}
+
+	private static int slot(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		long[] oldMoves = moves;
+		keys = new long[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		moves = new long[keys.length];
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY)
+				put(oldKeys[i], oldMoves[i]);
+		}
+	}
+}
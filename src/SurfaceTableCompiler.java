@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+/**
+ * Compiles the SurfaceTable of a weight vector: plays seeded games with the
+ * 1-ply player of the weights and stores its move for every piece on each
+ * board with a key it goes through. Then plays other games with a
+ * SurfacePolicy over the table and with the player alone, checks they make
+ * the same moves, and reports the share of the moves found in the table, of
+ * the boards the table cannot have, and the time per move of both.
+ *
+ * Usage: java SurfaceTableCompiler [games] [moves per game] [weights]
+ * where the weights (PlayerSkeleton.WEIGHTS by default) are numbers separated
+ * by commas or spaces, as PSO prints them, one per feature of
+ * FeatureSet.DEFAULT or FeatureSet.EXTENDED.
+ */
+public class SurfaceTableCompiler {
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int moves = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		double[] weights = PlayerSkeleton.WEIGHTS;
+		if (args.length > 2) {
+			String[] numbers = String.join(" ", Arrays.copyOfRange(args, 2, args.length)).replaceAll("[\\[\\],]", " ")
+					.trim().split("\\s+");
+			weights = new double[numbers.length];
+			for (int k = 0; k < numbers.length; k++)
+				weights[k] = Double.parseDouble(numbers[k]);
+		}
+		FeatureSet features = weights.length == FeatureSet.EXTENDED.size() ? FeatureSet.EXTENDED : FeatureSet.DEFAULT;
+		PlayerSkeletonTrain player = new PlayerSkeletonTrain(features, weights, 1, Integer.MAX_VALUE, 0);
+
+		long start = System.nanoTime();
+		SurfaceTable table = compile(player, games, moves, 0);
+		System.out.printf("Compiled %d boards (%d KB) in %.1f s%n", table.size(), table.bytes() >> 10,
+				(System.nanoTime() - start) / 1e9);
+
+		// games not compiled from
+		SurfacePolicy surface = new SurfacePolicy(table, player);
+		long[] nanos = new long[2];
+		long[] checksums = new long[2];
+		long played = 0;
+		for (int g = 0; g < games; g++) {
+			Policy[] policies = { player, surface };
+			for (int p = 0; p < policies.length; p++) {
+				State s = new State(new RandomPieceSource(games + g));
+				long time = System.nanoTime();
+				while (!s.hasLost() && s.getTurnNumber() < moves) {
+					int move = policies[p].pickMove(s, s.legalMoves());
+					checksums[p] = checksums[p] * 31 + move;
+					s.makeMove(move);
+				}
+				nanos[p] += System.nanoTime() - time;
+				if (p == 0)
+					played += s.getTurnNumber();
+			}
+		}
+		if (checksums[0] != checksums[1])
+			throw new IllegalStateException("The table picked different moves from the player");
+		System.out.printf("Hit rate %.1f%% over %d moves, %.1f%% on boards with holes or steep%n",
+				100 * surface.getHitRate(), played, 100.0 * surface.getKeyless() / played);
+		System.out.printf("pickMove: player %.2f us/move, table %.2f us/move (speedup %.2f)%n", nanos[0] / 1e3 / played,
+				nanos[1] / 1e3 / played, (double) nanos[0] / nanos[1]);
+	}
+
+	/**
+	 * @param player
+	 *            the 1-ply player whose moves to store
+	 * @param games
+	 *            number of games played
+	 * @param moves
+	 *            most moves per game
+	 * @param seed
+	 *            game g is played with the pieces of RandomPieceSource(seed +
+	 *            g)
+	 * @return the moves of the player on the boards with a key met
+	 */
+	public static SurfaceTable compile(PlayerSkeletonTrain player, int games, int moves, long seed) {
+		SurfaceTable table = new SurfaceTable();
+		StateWrapper wrap = new StateWrapper();
+		int[] move = new int[State.N_PIECES];
+		for (int g = 0; g < games; g++) {
+			State s = new State(new RandomPieceSource(seed + g));
+			while (!s.hasLost() && s.getTurnNumber() < moves) {
+				long key = SurfaceTable.key(s.getRows(), s.getTop());
+				if (key >= 0 && !table.contains(key)) {
+					wrap.reset(s);
+					for (int piece = 0; piece < State.N_PIECES; piece++) {
+						wrap.setNextPiece(piece);
+						move[piece] = player.pickMove(wrap);
+					}
+					table.put(key, move);
+				}
+				s.makeMove(player.pickMove(s, s.legalMoves()));
+			}
+		}
+		return table;
+	}
+}
@@ -0,0 +1,124 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed size table of the values of searched boards, so that a board reached
+ * again through another order of moves is not searched again. Entries are
+ * keyed by a 64 bit key (the board hash mixed with whatever else the value
+ * depends on, see key()) and hold the depth searched and the value found.
+ *
+ * The table lives in one long[] of ENTRY longs per entry and is shared by the
+ * search threads without locks: an entry is stored as the key xor the value
+ * and depth words, the value and the depth words, so an entry torn by two
+ * threads writing it at once does not check against any key and is only a
+ * miss (the lockless hashing of chess engines).
+ *
+ * When a slot is taken, the new entry replaces the old one always, or in
+ * depth-preferred mode only if it was searched at least as deep or the old
+ * one is from an earlier search (see newSearch()).
+ */
+public final class TranspositionTable {
+	private static final int ENTRY = 3;
+	private static final long DEPTH_MASK = 0xFFFF;
+
+	private final long[] table;
+	private final int mask;
+	private final boolean depthPreferred;
+	// number of the current search, stored above the depth
+	private volatile long generation;
+
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder stores = new LongAdder();
+
+	/**
+	 * @param capacity
+	 *            number of entries, rounded up to a power of two
+	 * @param depthPreferred
+	 *            true to keep the deeper of two entries of a slot, false to
+	 *            always replace
+	 */
+	public TranspositionTable(int capacity, boolean depthPreferred) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		table = new long[size * ENTRY];
+		mask = size - 1;
+		this.depthPreferred = depthPreferred;
+	}
+
+	// key of a board: its hash and the rows cleared on the way to it, which
+	// the features (complete lines) count
+	public static long key(long hash, int rowsCleared) {
+		long key = hash + rowsCleared * 0x9E3779B97F4A7C15L;
+		key ^= key >>> 31;
+		return key * 0xBF58476D1CE4E5B9L;
+	}
+
+	// start a new search: entries of the earlier ones can be replaced
+	public void newSearch() {
+		generation++;
+	}
+
+	/**
+	 * @param key
+	 *            key of the board
+	 * @param depth
+	 *            depth the value must have been searched at
+	 * @return the value stored for the key at that depth, NaN if there is none
+	 */
+	public double probe(long key, int depth) {
+		probes.increment();
+		int slot = ((int) key & mask) * ENTRY;
+		long value = table[slot + 1];
+		long meta = table[slot + 2];
+		if ((table[slot] ^ value ^ meta) != key || (meta & DEPTH_MASK) != depth)
+			return Double.NaN;
+		hits.increment();
+		return Double.longBitsToDouble(value);
+	}
+
+	/**
+	 * Store the value of a board searched to a depth
+	 */
+	public void store(long key, int depth, double value) {
+		int slot = ((int) key & mask) * ENTRY;
+		long meta = generation << 16 | depth & DEPTH_MASK;
+		if (depthPreferred) {
+			long old = table[slot + 2];
+			if (old >>> 16 == generation && (old & DEPTH_MASK) > depth)
+				return;
+		}
+		long bits = Double.doubleToRawLongBits(value);
+		stores.increment();
+		table[slot] = key ^ bits ^ meta;
+		table[slot + 1] = bits;
+		table[slot + 2] = meta;
+	}
+
+	// number of entries
+	public int capacity() {
+		return mask + 1;
+	}
+
+	public long getProbes() {
+		return probes.sum();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getStores() {
+		return stores.sum();
+	}
+
+	// share of the probes that found their board
+	public double getHitRate() {
+		long probes = this.probes.sum();
+		return probes == 0 ? 0 : (double) hits.sum() / probes;
+	}
+
+	@Override
+	public String toString() {
+		return "transposition table of " + capacity() + ": " + getProbes() + " probes, " + getHits() + " hits ("
+				+ Math.round(100 * getHitRate()) + "%), " + getStores() + " stores";
+	}
+}
@@ -0,0 +1,50 @@
+import java.util.SplittableRandom;
+
+/**
+ * Zobrist keys of the board squares, to hash a board in 64 bits and update
+ * the hash as squares are filled and rows cleared.
+ *
+ * The key of a row is looked up by halves: its low 5 columns and its high 5
+ * columns each index a table of 32 random keys per row, the key of an empty
+ * half being 0. The hash of a board is the XOR of the keys of its rows, so an
+ * empty board hashes to 0 and changing a row costs two lookups.
+ */
+public final class Zobrist {
+	private static final int HALF = State.COLS / 2;
+	private static final int HALF_MASK = (1 << HALF) - 1;
+
+	private static final long[] LOW = new long[State.ROWS << HALF];
+	private static final long[] HIGH = new long[State.ROWS << HALF];
+
+	static {
+		// fixed seed, hashes are the same from one run to the next
+		SplittableRandom random = new SplittableRandom(0x5eed7e7215L);
+		for (int r = 0; r < State.ROWS; r++) {
+			for (int m = 1; m <= HALF_MASK; m++) {
+				LOW[(r << HALF) + m] = random.nextLong();
+				HIGH[(r << HALF) + m] = random.nextLong();
+			}
+		}
+	}
+
+	private Zobrist() {
+	}
+
+	// key of row r filled as given by mask
+	public static long row(int r, int mask) {
+		return LOW[(r << HALF) + (mask & HALF_MASK)] ^ HIGH[(r << HALF) + (mask >>> HALF)];
+	}
+
+	// hash of rows[from .. to-1], rows[from] being row number from
+	public static long rows(int[] rows, int from, int to) {
+		long hash = 0;
+		for (int r = from; r < to; r++)
+			hash ^= row(r, rows[r]);
+		return hash;
+	}
+
+	// hash of a whole board
+	public static long board(int[] rows) {
+		return rows(rows, 0, State.ROWS);
+	}
+}